@@ -0,0 +1,34 @@
+package bench;
+
+import global.Minibase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A scratch database for one benchmark trial.
+ */
+class BenchDB {
+
+  /**
+   * Creates a database of the given size in a temporary file and makes it
+   * the current Minibase instance.
+   */
+  static void create(int num_pgs, int bufpoolsize) {
+    try {
+      File file = File.createTempFile("minibase", ".bench");
+      file.deleteOnExit();
+      new Minibase(file.getPath(), num_pgs, bufpoolsize, false);
+    } catch (IOException exc) {
+      throw new IllegalStateException("Cannot create the benchmark database", exc);
+    }
+  }
+
+  /**
+   * Destroys the current database and its files.
+   */
+  static void destroy() {
+    Minibase.DiskManager.destroyDB();
+  }
+
+} // class BenchDB
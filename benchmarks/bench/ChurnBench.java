@@ -0,0 +1,136 @@
+package bench;
+
+import bufmgr.BufMgr;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the buffer manager that allocate or flush: page allocation
+ * churn, and flushing the pool.  They run on one thread, since allocation
+ * goes through the disk manager's space map, which is not thread-safe.
+ * <p>
+ * The trial allocates and writes half a pool's worth of pages, which stay
+ * resident for the flush to write back.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class ChurnBench implements GlobalConst {
+
+  /** Number of frames in the buffer pool. */
+  @Param({ "100", "1000" })
+  public int poolSize;
+
+  /** Replacement policy, as for BufMgr(int, String). */
+  @Param({ "Clock", "LRU" })
+  public String policy;
+
+  /** First page of the run. */
+  protected int firstPid;
+
+  /** Number of pages in the run, all of them resident. */
+  protected int numHot;
+
+  /** Buffer the benchmarks pin into. */
+  protected final Page page = new Page();
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Creates the database, writes the run and pins its pages once.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+
+    BenchDB.create(poolSize + 1000, poolSize);
+    Minibase.BufferManager.flushAllFrames();
+    Minibase.BufferManager = new BufMgr(poolSize, policy);
+
+    numHot = Math.max(1, poolSize / 2);
+    firstPid = Minibase.DiskManager.allocate_page(numHot).pid;
+    for (int i = 0; i < numHot; ++i) {
+      PageId pid = new PageId(firstPid + i);
+      Minibase.DiskManager.write_page(pid, page);
+      Minibase.BufferManager.pinPage(pid, page, PIN_DISKIO);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+    }
+
+  } // public void setup()
+
+  /**
+   * Destroys the database.
+   */
+  @TearDown(Level.Trial)
+  public void teardown() {
+    BenchDB.destroy();
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Allocates a new page in the pool and frees it again.
+   */
+  @Benchmark
+  public int newPageFreePage() {
+    PageId pid = Minibase.BufferManager.newPage(page, 1);
+    Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+    Minibase.BufferManager.freePage(pid);
+    return pid.pid;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Dirties the resident pages before each flush.
+   */
+  @State(Scope.Thread)
+  public static class DirtyPool {
+
+    final PageId pid = new PageId();
+
+    final Page page = new Page();
+
+    @Setup(Level.Invocation)
+    public void dirty(ChurnBench bench) {
+      for (int i = 0; i < bench.numHot; ++i) {
+        pid.pid = bench.firstPid + i;
+        Minibase.BufferManager.pinPage(pid, page, PIN_DISKIO);
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      }
+    }
+
+  } // public static class DirtyPool
+
+  /**
+   * Writes back half a pool of dirty pages.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public void flushAllFrames(DirtyPool dirty) {
+    Minibase.BufferManager.flushAllFrames();
+  }
+
+} // public class ChurnBench implements GlobalConst
@@ -0,0 +1,111 @@
+package bench;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.PageId;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the disk manager: allocation on a fragmented space map,
+ * and file library lookups.  They run on one thread, since allocation
+ * and the library are not thread-safe.
+ * <p>
+ * The trial fills the library with fileCount entries, then allocates a
+ * run of pageCount pages and frees every other one, so a request for two
+ * pages has to search past all the one-page holes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class DiskBench implements GlobalConst {
+
+  /** Number of frames in the buffer pool. */
+  @Param({ "100", "1000" })
+  public int poolSize;
+
+  /** Number of pages in the fragmented region of the space map. */
+  @Param({ "10000", "100000" })
+  public int pageCount;
+
+  /** Number of entries in the file library. */
+  @Param({ "1000" })
+  public int fileCount;
+
+  /** Names of the library entries. */
+  protected String[] names;
+
+  /** Next entry to look up. */
+  protected int next;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Creates the database, fills the library and fragments the space map.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+
+    BenchDB.create(pageCount + fileCount + 1000, poolSize);
+
+    names = new String[fileCount];
+    for (int i = 0; i < fileCount; ++i) {
+      names[i] = "file" + i;
+      Minibase.DiskManager.add_file_entry(names[i], new PageId(FIRST_PAGEID));
+    }
+
+    PageId firstid = Minibase.DiskManager.allocate_page(pageCount);
+    for (int i = 0; i < pageCount; i += 2)
+      Minibase.DiskManager.deallocate_page(new PageId(firstid.pid + i));
+
+  } // public void setup()
+
+  /**
+   * Destroys the database.
+   */
+  @TearDown(Level.Trial)
+  public void teardown() {
+    BenchDB.destroy();
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Allocates a run of two pages past the holes, and frees it again.
+   */
+  @Benchmark
+  public int allocateFragmented() {
+    PageId firstid = Minibase.DiskManager.allocate_page(2);
+    Minibase.DiskManager.deallocate_page(firstid, 2);
+    return firstid.pid;
+  }
+
+  /**
+   * Looks up a file library entry, cycling through all of them.
+   */
+  @Benchmark
+  public PageId getFileEntry() {
+    String name = names[next++ % fileCount];
+    return Minibase.DiskManager.get_file_entry(name);
+  }
+
+} // public class DiskBench implements GlobalConst
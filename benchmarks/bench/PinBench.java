@@ -0,0 +1,155 @@
+package bench;
+
+import bufmgr.BufMgr;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Benchmarks of the buffer manager: pins that hit, and misses that evict
+ * clean and dirty victims.  They are safe to run on several threads with
+ * JMH's -t option; ChurnBench has those that are not.
+ * <p>
+ * The trial allocates and writes a run of pageCount pages.  Hits cycle
+ * through the first half of a pool's worth of them, which stay resident;
+ * misses walk the whole run in order, which with pageCount at least twice
+ * the pool size misses on every pin.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PinBench implements GlobalConst {
+
+  /** Number of frames in the buffer pool. */
+  @Param({ "100", "1000" })
+  public int poolSize;
+
+  /** Number of pages in the run the benchmarks pin. */
+  @Param({ "10000" })
+  public int pageCount;
+
+  /** Replacement policy, as for BufMgr(int, String). */
+  @Param({ "Clock", "LRU" })
+  public String policy;
+
+  /** First page of the run. */
+  protected int firstPid;
+
+  /** Number of pages kept resident for the hit benchmark. */
+  protected int numHot;
+
+  /**
+   * Position and buffers of one benchmark thread.
+   */
+  @State(Scope.Thread)
+  public static class Cursor {
+
+    /** Next page to pin, relative to the start of the run. */
+    int next;
+
+    final PageId pid = new PageId();
+
+    final Page page = new Page();
+
+    /**
+     * Starts each thread at a different place in the run.
+     */
+    @Setup
+    public void setup(ThreadParams params) {
+      next = params.getThreadIndex() * 7919;
+    }
+
+  } // public static class Cursor
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Creates the database, writes the run and pins the hot pages once.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+
+    BenchDB.create(pageCount + poolSize + 1000, poolSize);
+    Minibase.BufferManager.flushAllFrames();
+    Minibase.BufferManager = new BufMgr(poolSize, policy);
+
+    firstPid = Minibase.DiskManager.allocate_page(pageCount).pid;
+    Page page = new Page();
+    for (int i = 0; i < pageCount; ++i)
+      Minibase.DiskManager.write_page(new PageId(firstPid + i), page);
+
+    numHot = Math.max(1, Math.min(pageCount, poolSize / 2));
+    for (int i = 0; i < numHot; ++i) {
+      PageId pid = new PageId(firstPid + i);
+      Minibase.BufferManager.pinPage(pid, page, PIN_DISKIO);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+    }
+
+  } // public void setup()
+
+  /**
+   * Destroys the database.
+   */
+  @TearDown(Level.Trial)
+  public void teardown() {
+    BenchDB.destroy();
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Pins and unpins a resident page.
+   */
+  @Benchmark
+  public int pinUnpinHit(Cursor cursor) {
+    cursor.pid.pid = firstPid + (cursor.next++ & Integer.MAX_VALUE) % numHot;
+    Minibase.BufferManager.pinPage(cursor.pid, cursor.page, PIN_DISKIO);
+    Minibase.BufferManager.unpinPage(cursor.pid, UNPIN_CLEAN);
+    return cursor.page.getData()[0];
+  }
+
+  /**
+   * Pins a page that is not resident, evicting a clean page for it.
+   */
+  @Benchmark
+  public int missCleanEviction(Cursor cursor) {
+    cursor.pid.pid = firstPid + (cursor.next++ & Integer.MAX_VALUE) % pageCount;
+    Minibase.BufferManager.pinPage(cursor.pid, cursor.page, PIN_DISKIO);
+    Minibase.BufferManager.unpinPage(cursor.pid, UNPIN_CLEAN);
+    return cursor.page.getData()[0];
+  }
+
+  /**
+   * Pins a page that is not resident and dirties it, so that once the pool
+   * has filled every miss evicts a dirty page and writes it first.
+   */
+  @Benchmark
+  public int missDirtyEviction(Cursor cursor) {
+    cursor.pid.pid = firstPid + (cursor.next++ & Integer.MAX_VALUE) % pageCount;
+    Minibase.BufferManager.pinPage(cursor.pid, cursor.page, PIN_DISKIO);
+    Minibase.BufferManager.unpinPage(cursor.pid, UNPIN_DIRTY);
+    return cursor.page.getData()[0];
+  }
+
+} // public class PinBench implements GlobalConst
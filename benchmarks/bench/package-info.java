@@ -0,0 +1,30 @@
+/**
+ * JMH benchmarks for the hot paths of the buffer manager and the disk
+ * manager.  Unlike tests.BMBench, which prints tables for a quick look,
+ * these run under the JMH harness, with warm-up, forks and error bars, so
+ * runs can be compared to catch regressions.
+ * <p>
+ * The benchmarks are a source root of their own, benchmarks, apart from
+ * the packages at the top of the tree, so that those compile without JMH.
+ * The repository has no build file, so the benchmarks are compiled by
+ * hand against JMH 1.37 (jmh-core, jmh-generator-annprocess and their
+ * dependencies jopt-simple and commons-math3), which also runs the
+ * annotation processor that generates the harness:
+ * <pre>
+ * javac -cp "jmh/*" -d out $(find global diskmgr bufmgr benchmarks -name '*.java')
+ * java -cp "out:jmh/*" org.openjdk.jmh.Main 'bench\.PinBench' -p poolSize=100,1000 -t 4
+ * java -cp "out:jmh/*" org.openjdk.jmh.Main 'bench\.(ChurnBench|DiskBench)'
+ * </pre>
+ * Pool size and page count are JMH parameters (-p); the thread count is
+ * JMH's own -t option.  Only PinBench may run on several threads.  The
+ * benchmarks of ChurnBench and DiskBench allocate through the disk
+ * manager's space map or use its library, which are not thread-safe, so
+ * they are annotated to run on one thread.  A -t on the command line
+ * overrides that annotation, so never give it when running them.
+ * <p>
+ * Each trial creates its own database in a temporary file and destroys it
+ * afterwards.  The Minibase layers are static, so benchmarks must not run
+ * concurrently in one JVM; JMH's default of forking each one takes care of
+ * that.
+ */
+package bench;
@@ -0,0 +1,235 @@
+package bufmgr;
+
+import global.PageId;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive replacement cache (Megiddo and Modha), which resists sequential
+ * scans.  Resident pages are split between T1, pages referenced once since
+ * they came in, and T2, pages referenced at least twice.  A scan only ever
+ * adds to T1, so it cannot displace the hot pages in T2.
+ * <p>
+ * The ids of pages evicted from T1 and T2 are remembered in the ghost
+ * queues B1 and B2.  A miss on a ghost in B1 means T1 was too small, and a
+ * miss on a ghost in B2 means T2 was too small; either one moves the target
+ * size p of T1, and the page comes back straight into T2.
+ * <p>
+ * The queues are intrusive LRU lists threaded through per-frame arrays and
+ * are guarded by the policy's monitor.  A hit on the most recently used
+ * frame of T2 needs no bookkeeping and skips the monitor.
+ */
+public class ARC implements ReplacementPolicy {
+
+    // which queue a frame is on
+    private static final byte NONE = 0;
+    private static final byte T1 = 1;
+    private static final byte T2 = 2;
+
+    private FrameDesc [] bufferPool;
+    private int capacity;
+
+    // target size of T1
+    private int p;
+
+    private byte [] queue;
+    private int [] prev;
+    private int [] next;
+
+    // heads are the least recently used ends, tails the most recently used
+    private final int [] head = { -1, -1, -1 };
+    private final int [] tail = { -1, -1, -1 };
+    private final int [] size = new int[3];
+
+    // queue entries pickVictim has looked at
+    private final LongAdder sweepSteps = new LongAdder();
+
+    // ghost ids, least recently evicted first
+    private final LinkedHashSet<PageId> b1 = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> b2 = new LinkedHashSet<>();
+
+    public synchronized void init(FrameDesc [] frametab) {
+
+        bufferPool = frametab;
+        capacity = frametab.length;
+        queue = new byte[frametab.length];
+        prev = new int[frametab.length];
+        next = new int[frametab.length];
+    }
+
+    /**
+     * Frames being retired have already been freed, so they are on no
+     * queue and late hits on them change nothing.
+     */
+    public synchronized void resize(FrameDesc [] frametab, int numframes) {
+
+        if (frametab.length > queue.length) {
+            queue = Arrays.copyOf(queue, frametab.length);
+            prev = Arrays.copyOf(prev, frametab.length);
+            next = Arrays.copyOf(next, frametab.length);
+        }
+        bufferPool = frametab;
+        capacity = numframes;
+        p = Math.min(p, capacity);
+        trimGhosts();
+    }
+
+    /** Returns the least recently used unpinned frame of T1 if T1 is above
+     *  its target, else of T2, else -1.  Empty frames come from the buffer
+     *  manager's free list and are never asked for.
+     */
+    public synchronized int pickVictim() {
+
+        byte first = (size[T1] > 0 && size[T1] > p) ? T1 : T2;
+        byte second = (first == T1) ? T2 : T1;
+        int victim = firstUnpinned(first);
+        if (victim == -1)
+            victim = firstUnpinned(second);
+        return victim;
+    }
+
+    /** Adapts p on a ghost hit and admits the page to T2, else to T1. */
+    public synchronized void pinned(int frameno) {
+
+        PageId pageno = new PageId(bufferPool[frameno].getDiskPgNum());
+        if (b1.remove(pageno)) {
+            p = Math.min(capacity, p + Math.max(b2.size() / Math.max(b1.size(), 1), 1));
+            append(frameno, T2);
+        } else if (b2.remove(pageno)) {
+            p = Math.max(0, p - Math.max(b1.size() / Math.max(b2.size(), 1), 1));
+            append(frameno, T2);
+        } else {
+            append(frameno, T1);
+        }
+        trimGhosts();
+    }
+
+    /** Moves a frame to the most recently used end of T2. */
+    public void hit(int frameno) {
+
+        if (tail[T2] == frameno)
+            return;
+        synchronized (this) {
+            if (queue[frameno] != NONE && tail[T2] != frameno) {
+                unlink(frameno);
+                append(frameno, T2);
+            }
+        }
+    }
+
+    public void unpinned(int frameno) {
+    }
+
+    /** Remembers the id of the page leaving the frame in B1 or B2. */
+    public synchronized void evicted(int frameno) {
+
+        PageId pageno = new PageId(bufferPool[frameno].getDiskPgNum());
+        if (queue[frameno] == T1)
+            b1.add(pageno);
+        else if (queue[frameno] == T2)
+            b2.add(pageno);
+        unlink(frameno);
+        trimGhosts();
+    }
+
+    public synchronized void freed(int frameno) {
+
+        unlink(frameno);
+    }
+
+    /** Moves a frame to the least recently used end of T1. */
+    public synchronized void demote(int frameno) {
+
+        if (queue[frameno] == NONE)
+            return;
+        unlink(frameno);
+        prev[frameno] = -1;
+        next[frameno] = head[T1];
+        if (head[T1] != -1)
+            prev[head[T1]] = frameno;
+        else
+            tail[T1] = frameno;
+        head[T1] = frameno;
+        ++size[T1];
+        queue[frameno] = T1;
+    }
+
+    /** Pages used more than once, in T2, are hotter than those in T1. */
+    public long hotness(int frameno) {
+
+        return queue[frameno];
+    }
+
+    /** Counts the queue entries pickVictim has looked at */
+    public long getSweepSteps() {
+
+        return sweepSteps.sum();
+    }
+
+    /** Keeps |T1| + |B1| and the total directory within ARC's bounds. */
+    private void trimGhosts() {
+
+        while (!b1.isEmpty() && size[T1] + b1.size() > capacity)
+            dropOldest(b1);
+        while (!b2.isEmpty()
+            && size[T1] + size[T2] + b1.size() + b2.size() > 2 * capacity)
+            dropOldest(b2);
+    }
+
+    private static void dropOldest(LinkedHashSet<PageId> ghosts) {
+
+        Iterator<PageId> oldest = ghosts.iterator();
+        oldest.next();
+        oldest.remove();
+    }
+
+    private int firstUnpinned(byte which) {
+
+        int steps = 0;
+        for (int f = head[which]; f != -1; f = next[f]) {
+            ++steps;
+            if (bufferPool[f].getPinCount() == 0) {
+                sweepSteps.add(steps);
+                return f;
+            }
+        }
+        sweepSteps.add(steps);
+        return -1;
+    }
+
+    private void append(int frameno, byte which) {
+
+        prev[frameno] = tail[which];
+        next[frameno] = -1;
+        if (tail[which] != -1)
+            next[tail[which]] = frameno;
+        else
+            head[which] = frameno;
+        tail[which] = frameno;
+        ++size[which];
+        queue[frameno] = which;
+    }
+
+    private void unlink(int frameno) {
+
+        byte which = queue[frameno];
+        if (which == NONE)
+            return;
+
+        int pr = prev[frameno];
+        int nx = next[frameno];
+        if (pr != -1)
+            next[pr] = nx;
+        else
+            head[which] = nx;
+        if (nx != -1)
+            prev[nx] = pr;
+        else
+            tail[which] = pr;
+        --size[which];
+        queue[frameno] = NONE;
+    }
+}
@@ -2,8 +2,13 @@ package bufmgr;
 
 import global.*;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
 
 
 /**
@@ -20,13 +25,136 @@ import java.util.Map;
  * </ol>
  * The buffer manager is used by access methods, heap files, and
  * relational operators.
+ * <p>
+ * The buffer manager is safe for concurrent use.  Pinning a resident page and
+ * unpinning a page only touch the page table, whose lookups take no lock,
+ * and the frame's atomic pin count; misses, evictions, frees and flushes
+ * serialize on a single miss latch.  Pins keep pages in the pool; callers
+ * that share a page order their access to its contents with page latches.
  */
 public class BufMgr implements GlobalConst {
 
-    private FrameDesc [] frametab;
-    private int numframes;
-    private Clock replPolicy;
-    protected HashMap<PageId, FrameDesc> bufmap;
+    // the frame table only ever grows; frames past numframes are being
+    // retired by a shrink, or already are, and get no new pages
+    private volatile FrameDesc [] frametab;
+    private volatile int numframes;
+    private ReplacementPolicy replPolicy;
+    protected volatile PageTable bufmap;
+
+    // frames past numframes still holding a page, guarded by the miss latch
+    private int numRetiring;
+
+    /** Serializes misses, evictions, frees and flushes; hits never take it. */
+    private final Object missLatch = new Object();
+
+    // stack of empty frames, guarded by the miss latch; entries may be stale
+    // if the replacement policy handed out an empty frame itself
+    private int [] freeFrames;
+    private int numFree;
+    private boolean [] onFreeList;
+
+    // buffers of retired frames, for frames a later grow takes back; held
+    // softly so the memory a shrink gave up is still there for the taking
+    // if nothing needs it first; guarded by the miss latch
+    private final ArrayDeque<SoftReference<byte []>> spareBuffers =
+        new ArrayDeque<SoftReference<byte []>>();
+
+    // occupancy counters, kept current on every state change
+    private final AtomicInteger numResident = new AtomicInteger();
+    private final AtomicInteger numPinned = new AtomicInteger();
+    private final AtomicInteger numDirty = new AtomicInteger();
+
+    // event counters, bumped on the hit path as well, so they are adders
+    // that threads do not contend on; see BufMgrStats
+    private final LongAdder numHits = new LongAdder();
+    private final LongAdder numMisses = new LongAdder();
+    private final LongAdder numUnpins = new LongAdder();
+    private final LongAdder numFrees = new LongAdder();
+
+    // eviction and write-back counters
+    private final LongAdder numEvictions = new LongAdder();
+    private final LongAdder numDirtyEvictions = new LongAdder();
+    private final LongAdder numCleanerWrites = new LongAdder();
+
+    // misses that reused a frame of a BufferRing
+    private final LongAdder numRingReuses = new LongAdder();
+
+    // flush counters: pages written, disk writes issued, and time spent
+    private final LongAdder numFlushWrites = new LongAdder();
+    private final LongAdder numFlushRuns = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+
+    // prefetch counters: pages read ahead, and of those, pinned or evicted first
+    private final LongAdder numPrefetches = new LongAdder();
+    private final LongAdder numPrefetchHits = new LongAdder();
+    private final LongAdder numPrefetchWasted = new LongAdder();
+
+    // the JMX view of the counters
+    private final BufMgrStats stats = new BufMgrStats(this);
+
+    // latencies of pins that hit and missed, and of flushPage; shared by
+    // the shards of the default pool.  Timing a hit costs more than the hit
+    // itself, so only a sample of the hits is timed.
+    private LatencyHistogram pinHitLatency = new LatencyHistogram(HIT_SAMPLE_INTERVAL);
+    private LatencyHistogram pinMissLatency = new LatencyHistogram();
+    private LatencyHistogram flushLatency = new LatencyHistogram();
+
+    private volatile ReadAhead readAhead;
+
+    // serves prefetch(PageId[]) requests, started on first use
+    private Prefetcher prefetcher;
+
+    private volatile PageCleaner cleaner;
+
+    // frame the page cleaner currently holds a pin on, -1 if none
+    private volatile int cleaningFrame = -1;
+
+    /** Name of the pool that holds every page not routed to another. */
+    public static final String DEFAULT_POOL = "default";
+
+    // frame handles and optimistic read stamps carry the number of the pool
+    // above this bit, and the frame number below it
+    private static final int POOL_SHIFT = 24;
+    private static final int FRAME_MASK = (1 << POOL_SHIFT) - 1;
+    private static final int MAX_POOLS = 1 << (31 - POOL_SHIFT);
+
+    // the named pools this buffer manager routes pages to, by pool number,
+    // and the routing rules, later rules first; entry 0 is this pool.  Both
+    // are copied on write, so routing takes no lock.
+    private volatile BufMgr [] pools = { this };
+    private volatile Route [] routes = new Route[0];
+
+    // this pool's number and name in the buffer manager that routes to it,
+    // and that buffer manager, which background reads route through
+    private int poolId;
+    private String poolName = DEFAULT_POOL;
+    private BufMgr router = this;
+
+    // the shards that together make up the default pool, this one first;
+    // pages not routed elsewhere go to a shard by a hash of their extent
+    private BufMgr [] shards = { this };
+    private int shardShift;
+
+    // pages hash to shards in extents of this many bits of page number, so
+    // short runs of consecutive pages stay in one shard
+    private static final int EXTENT_SHIFT = 4;
+    private static final int MAX_SHARDS = 64;
+
+    // one pin hit in this many is timed, at random
+    private static final int HIT_SAMPLE_INTERVAL = 16;
+
+    /** A run of pages routed to a pool. */
+    private static class Route {
+
+        final int first, end;
+        final BufMgr pool;
+
+        Route(int first, int end, BufMgr pool) {
+            this.first = first;
+            this.end = end;
+            this.pool = pool;
+        }
+    }
 
   /**
    * Constructs a buffer manager by initializing member data.  
@@ -35,6 +163,79 @@ public class BufMgr implements GlobalConst {
    */
   public BufMgr(int numframes) {
 
+    this(numframes, new Clock());
+
+  } // public BufMgr(int numframes)
+
+  /**
+   * Constructs a buffer manager using the named replacement policy.
+   *
+   * @param numframes number of frames in the buffer pool
+   * @param replacerArg one of "Clock", "LRU", "LRUK" (K=2), "GClock" or "ARC"
+   * @throws IllegalArgumentException if the policy name is unknown
+   */
+  public BufMgr(int numframes, String replacerArg) {
+
+    this(numframes, newPolicy(replacerArg));
+
+  } // public BufMgr(int numframes, String replacerArg)
+
+  /**
+   * Constructs a buffer manager whose default pool is split into shards,
+   * each with its own frames, page table, replacement policy and miss
+   * latch, so misses on different shards do not wait for each other.
+   * Pages go to a shard by a hash of their page number; the frames are
+   * split evenly.
+   *
+   * @param numframes total number of frames in the buffer pool
+   * @param replacerArg the replacement policy of every shard, as for
+   * BufMgr(int, String)
+   * @param numShards a power of two from 1 to 64, at most numframes
+   * @throws IllegalArgumentException if numShards is invalid or the policy
+   * name is unknown
+   */
+  public BufMgr(int numframes, String replacerArg, int numShards) {
+
+    this(shardSize(numframes, numShards, 0), newPolicy(replacerArg));
+
+    BufMgr [] all = new BufMgr[numShards];
+    all[0] = this;
+    for (int i = 1; i < numShards; ++i) {
+      all[i] = new BufMgr(shardSize(numframes, numShards, i), replacerArg);
+      all[i].poolId = i;
+      all[i].router = this;
+      all[i].pinHitLatency = pinHitLatency;
+      all[i].pinMissLatency = pinMissLatency;
+      all[i].flushLatency = flushLatency;
+    }
+    shards = all;
+    pools = all.clone();
+    shardShift = 32 - Integer.numberOfTrailingZeros(numShards);
+
+  } // public BufMgr(int numframes, String replacerArg, int numShards)
+
+  /**
+   * Gets the number of frames of one shard, giving the first ones any
+   * frames left over.
+   *
+   * @throws IllegalArgumentException if the number of shards is invalid
+   */
+  private static int shardSize(int numframes, int numShards, int shard) {
+
+      if (numShards < 1 || numShards > MAX_SHARDS || Integer.bitCount(numShards) != 1
+          || numShards > numframes)
+          throw new IllegalArgumentException("Invalid number of shards");
+      return numframes / numShards + ((shard < numframes % numShards) ? 1 : 0);
+  }
+
+  /**
+   * Constructs a buffer manager using the given replacement policy.
+   *
+   * @param numframes number of frames in the buffer pool
+   * @param replPolicy a policy not in use by any other buffer manager
+   */
+  public BufMgr(int numframes, ReplacementPolicy replPolicy) {
+
     try {
 
       if(numframes < 0) {
@@ -54,16 +255,39 @@ public class BufMgr implements GlobalConst {
 
     for(int i = 0; i < numframes; ++i) {
 
-        frametab[i] = new FrameDesc();
+        frametab[i] = new FrameDesc(i);
         //frametab[i] = null;
 
     }
 
     this.numframes = numframes;
-    this.replPolicy = new Clock();
-    this.bufmap = new HashMap<>();
+    this.freeFrames = new int[numframes];
+    this.onFreeList = new boolean[numframes];
+    for (int i = numframes - 1; i >= 0; --i)
+      pushFree(i);
+    this.replPolicy = replPolicy;
+    this.replPolicy.init(frametab);
+    this.bufmap = new PageTable(numframes);
 
-  } // public BufMgr(int numframes)
+  } // public BufMgr(int numframes, ReplacementPolicy replPolicy)
+
+  /**
+   * Maps a replacement policy name to a new instance of that policy.
+   */
+  private static ReplacementPolicy newPolicy(String replacerArg) {
+
+    if ("Clock".equalsIgnoreCase(replacerArg))
+      return new Clock();
+    if ("LRU".equalsIgnoreCase(replacerArg))
+      return new LRU();
+    if ("LRUK".equalsIgnoreCase(replacerArg))
+      return new LRUK();
+    if ("GClock".equalsIgnoreCase(replacerArg))
+      return new GClock();
+    if ("ARC".equalsIgnoreCase(replacerArg))
+      return new ARC();
+    throw new IllegalArgumentException("Unknown replacement policy: " + replacerArg);
+  }
 
   /**
    * The result of this call is that disk page number pageno should reside in
@@ -76,11 +300,13 @@ public class BufMgr implements GlobalConst {
    * 	uses the replacement policy to select a frame to replace
    * 	writes the frame's contents to disk if valid and dirty
    * 	if (contents == PIN_DISKIO)
-   * 		read disk page pageno into chosen frame
+   * 		read disk page pageno straight into chosen frame's buffer
    * 	else (contents == PIN_MEMCPY)
    * 		copy mempage into chosen frame
    * 	[omitted from the above is maintenance of the frame table and hash map]
    * </pre>		
+   * Only the second case takes the miss latch.
+   *
    * @param pageno identifies the page to pin
    * @param mempage An output parameter referring to the chosen frame.  If
    * contents==PIN_MEMCPY it is also an input parameter which is copied into
@@ -90,249 +316,2079 @@ public class BufMgr implements GlobalConst {
    * If PIN_MEMCPY, copy mempage into the frame.<br>  
    * If PIN_NOOP, copy nothing into the frame - the frame contents are irrelevant.<br>
    * Note: In the cases of PIN_MEMCPY and PIN_NOOP, disk I/O is avoided.
+   * Only PIN_MEMCPY copies; mempage's own buffer is otherwise never touched,
+   * and afterwards mempage shares the frame's buffer.
    * @throws IllegalArgumentException if PIN_MEMCPY and the page is pinned.
    * @throws IllegalStateException if all pages are pinned (i.e. pool is full)
    */
   public void pinPage(PageId pageno, Page mempage, int contents) {
 
-      try {
-          if (bufmap.containsKey(pageno)) {
+      pinFrame(pageno, mempage, contents);
 
-              FrameDesc temp = bufmap.get(pageno);
-              mempage.setPage(temp.getaPage());
-              int tempvar = Convert.getIntValue(0, temp.aPage.getData());
-              int memvar = Convert.getIntValue(0, mempage.getData());
-              temp.incPinCount();
-              return;
-          }
+  } // public void pinPage(PageId pageno, Page page, int contents)
 
-          int frameno = replPolicy.pickVictim(frametab);
+  /**
+   * Pins a page exactly as pinPage does, and returns a handle to the frame
+   * that holds it.  Passing the handle to unpinFrame unpins the page
+   * without looking it up again.  The handle is only good until the pin it
+   * came with is dropped.
+   *
+   * @return the frame handle
+   * @throws IllegalArgumentException as for pinPage
+   * @throws IllegalStateException as for pinPage
+   */
+  public int pinFrame(PageId pageno, Page mempage, int contents) {
 
-          if (frameno == -1)
-              System.err.print("Frame Number does not exist");
-          else{
-              for (Map.Entry<PageId, FrameDesc> entry : bufmap.entrySet()) {
-                  if (entry.getValue() == frametab[frameno]){
-                      flushPage(entry.getKey());
-                  }
-              }
-          }
+      return pinFrame(pageno, mempage, contents, null);
 
-          if(bufmap.size() > 0 && getNumUnpinned() == 0)
-              throw new IllegalStateException();
+  } // public int pinFrame(PageId pageno, Page mempage, int contents)
 
-          if(frametab[frameno].getPinCount() > 0)
-              throw new IllegalArgumentException();
+  /**
+   * Pins a page as pinPage does, taking the frame for a miss from the
+   * given ring rather than from the replacement policy.
+   *
+   * @param ring a ring from newRing
+   * @throws IllegalArgumentException as for pinPage
+   * @throws IllegalStateException as for pinPage
+   */
+  public void pinPage(PageId pageno, Page mempage, int contents, BufferRing ring) {
 
-          if (contents == PIN_DISKIO) {
-              Minibase.DiskManager.read_page(pageno, mempage);
-              frametab[frameno].copyPage(mempage);
-              frametab[frameno].setDiskPageNumber(pageno.pid);
-              bufmap.remove(pageno);
-              bufmap.put(pageno, frametab[frameno]);
-              frametab[frameno].incPinCount();
-              mempage.setPage(frametab[frameno].getaPage());
+      pinFrame(pageno, mempage, contents, ring);
 
-          } else if (contents == PIN_MEMCPY) {
+  } // public void pinPage(PageId pageno, Page mempage, int contents, BufferRing ring)
 
-              frametab[frameno].setDiskPageNumber(pageno.pid);
-              frametab[frameno].copyPage(mempage);
-              bufmap.put(pageno, frametab[frameno]);
-              frametab[frameno].incPinCount();
-              mempage.setPage(frametab[frameno].getaPage());
-          }
-          else {
+  /**
+   * Pins a page as pinFrame does, taking the frame for a miss from the
+   * given ring rather than from the replacement policy.
+   *
+   * @param ring a ring from newRing, or null for none
+   * @return the frame handle
+   * @throws IllegalArgumentException as for pinPage
+   * @throws IllegalStateException as for pinPage
+   */
+  public int pinFrame(PageId pageno, Page mempage, int contents, BufferRing ring) {
+
+      BufMgr pool = route(pageno.pid);
+      if (pool != this)
+          return (pool.poolId << POOL_SHIFT) | pool.pinFrame(pageno, mempage, contents, ring);
+
+      long start = pinHitLatency.start();
+      ReadAhead ra = readAhead;
+      if (ra != null && contents == PIN_DISKIO && ring == null)
+          ra.access(pageno.pid);
+
+      // hit path: no latch, just a pin on the frame the page table names
+      FrameDesc frame = lookup(pageno);
+      if (frame != null && pinResident(frame, pageno, mempage, contents)) {
+          pinHitLatency.stop(start);
+          return frame.index;
+      }
+
+      start = System.nanoTime();
+      PinMissEvent event = new PinMissEvent();
+      event.begin();
+      int frameno;
+      synchronized (missLatch) {
+
+          // someone else may have brought the page in while we waited
+          frame = lookup(pageno);
+          if (frame != null && pinResident(frame, pageno, mempage, contents)) {
+              frameno = frame.index;
+          } else {
+              frameno = loadPage(pageno, mempage, contents, 1, ring);
               mempage.setPage(frametab[frameno].getaPage());
-              return;
           }
       }
-      catch(IllegalArgumentException e) {
-
-           //System.err.println("Function: pinPage\n catch: IllegalArgumentException\n " + e.getMessage() + "\n");
+      pinMissLatency.record(System.nanoTime() - start);
+      if (event.shouldCommit()) {
+          event.pageId = pageno.pid;
+          event.frame = frameno;
+          event.pool = poolName;
+          event.commit();
       }
-      catch(IllegalStateException e) {
+      return frameno;
 
-           //System.err.println("Function: pinPage\n catch: IllegalStateException\n " + e.getMessage() + "\n");
-      }
+  } // public int pinFrame(PageId pageno, Page mempage, int contents, BufferRing ring)
 
-  } // public void pinPage(PageId pageno, Page page, int contents)
-  
   /**
-   * Unpins a disk page from the buffer pool, decreasing its pin count.
-   * 
-   * @param pageno identifies the page to unpin
-   * @param dirty UNPIN_DIRTY if the page was modified, UNPIN_CLEAN otherwise
-   * @throws IllegalArgumentException if the page is not in the buffer pool
-   *  or not pinned
+   * Brings a page that is not resident into a victim frame and leaves it
+   * with the given number of pins.  The victim comes from the ring, if
+   * given.  Must hold the miss latch.
+   *
+   * @return the frame number
+   * @throws IllegalStateException if all frames are pinned
    */
-  public void unpinPage(PageId pageno, boolean dirty) {
+  private int loadPage(PageId pageno, Page mempage, int contents, int pins, BufferRing ring) {
+
+      int frameno = (ring == null) ? claimVictim() : claimRingVictim(ring, pageno.pid);
+      FrameDesc victim = frametab[frameno];
+      evictFrame(victim);
 
       try {
+          // mempage may still alias another frame, so read into the victim
+          if (contents == PIN_DISKIO) {
+              Minibase.DiskManager.read_page(pageno, victim.getaPage());
+          } else if (contents == PIN_MEMCPY) {
+              victim.copyPage(mempage);
+          }
+      }
+      catch(RuntimeException exc) {
+          victim.resetFrame();
+          pushFree(frameno);
+          throw exc;
+      }
 
-          if(!bufmap.containsKey(pageno))
-              throw new IllegalArgumentException();
+      installPage(frameno, pageno.pid, pins);
+      if (pins > 0)
+          numMisses.increment();
+      return frameno;
+  }
 
-          FrameDesc frame = bufmap.get(pageno);
+  /**
+   * Maps a claimed frame that now holds the given page and releases it with
+   * the given number of pins.  Must hold the miss latch.
+   */
+  private void installPage(int frameno, int pid, int pins) {
+
+      FrameDesc frame = frametab[frameno];
+      frame.setDiskPageNumber(pid);
+      frame.prefetched = (pins == 0);
+      frame.prefetchedFor = null;
+
+      bufmap.put(pid, frameno);
+      replPolicy.pinned(frameno);
+      if (pins == 0)
+          replPolicy.unpinned(frameno);
+      frame.release(pins);
+      numResident.incrementAndGet();
+      if (pins > 0)
+          numPinned.incrementAndGet();
+  }
 
-          if(frame.getPinCount() == 0)
-              throw new IllegalArgumentException();
+  /**
+   * Reads pages that are not resident into victim frames, one disk request
+   * per run of consecutive page numbers, and leaves each with the given
+   * number of pins.  Must hold the miss latch.
+   * <p>
+   * With pins == 0 this is a prefetch: it loads only as many pages as there
+   * are unpinned frames, and skips runs holding pages that do not exist.
+   * Otherwise it loads every page or none.
+   *
+   * @param pids page numbers, sorted, distinct and not resident
+   * @param count number of entries of pids to load
+   * @return number of pages loaded
+   * @throws IllegalArgumentException if a page does not exist and pins > 0
+   * @throws IllegalStateException if all frames are pinned and pins > 0
+   */
+  private int loadPages(int [] pids, int count, int pins) {
 
+      int [] frames = new int[count];
+      int claimed = 0;
+      try {
+          for (; claimed < count; ++claimed) {
+              frames[claimed] = claimVictim();
+              evictFrame(frametab[frames[claimed]]);
+          }
+      }
+      catch(IllegalStateException exc) {
+          if (pins > 0) {
+              abandonFrames(frames, 0, claimed);
+              throw exc;
+          }
+      }
 
-          frame.setDirty(frame.getDirty() || dirty);
-          frame.decPinCount();
+      // one read per run; a prefetch drops the runs that fail
+      boolean [] loaded = new boolean[claimed];
+      for (int first = 0, last; first < claimed; first = last + 1) {
+
+          for (last = first; last + 1 < claimed && pids[last + 1] == pids[last] + 1; ++last)
+              ;
+          Page [] run = new Page[last - first + 1];
+          for (int i = first; i <= last; ++i)
+              run[i - first] = frametab[frames[i]].getaPage();
+          try {
+              Minibase.DiskManager.read_pages(new PageId(pids[first]), run);
+              for (int i = first; i <= last; ++i)
+                  loaded[i] = true;
+          }
+          catch(IllegalArgumentException exc) {
+              if (pins > 0) {
+                  abandonFrames(frames, 0, claimed);
+                  throw exc;
+              }
+              abandonFrames(frames, first, last + 1);
+          }
+      }
 
+      int numLoaded = 0;
+      for (int i = 0; i < claimed; ++i) {
+          if (loaded[i]) {
+              installPage(frames[i], pids[i], pins);
+              ++numLoaded;
+          }
       }
-      catch(IllegalArgumentException e) {
+      if (pins > 0)
+          numMisses.add(numLoaded);
+      return numLoaded;
+  }
 
-           //System.err.println("Function: unpinPage\n catch: IllegalArgumentException\n " + e.getMessage() + "\n");
+  /**
+   * Empties claimed victim frames that will not be loaded after all and puts
+   * them on the free list.  Must hold the miss latch.
+   */
+  private void abandonFrames(int [] frames, int from, int to) {
 
+      for (int i = from; i < to; ++i) {
+          frametab[frames[i]].resetFrame();
+          pushFree(frames[i]);
       }
-      return;
-  } // public void unpinPage(PageId pageno, boolean dirty)
-
+  }
 
   /**
-   * Allocates a run of new disk pages and pins the first one in the buffer pool.
-   * The pin will be made using PIN_MEMCPY.  Watch out for disk page leaks.
-   * 
-   * @param firstpg input and output: holds the contents of the first allocated page
-   * and refers to the frame where it resides
-   * @param run_size input: number of pages to allocate
-   * @return page id of the first allocated page
-   * @throws IllegalArgumentException if firstpg is already pinned
-   * @throws IllegalStateException if all pages are pinned (i.e. pool exceeded)
+   * Pins a batch of disk pages, as if by pinPage with PIN_DISKIO on each.
+   * Resident pages are pinned first; the rest are read in page number order,
+   * with each run of consecutive pages read in a single disk request.  A
+   * page named twice is pinned twice.
+   *
+   * @param pagenos identifies the pages to pin
+   * @param mempages output parameters, each referring to the frame holding
+   * the page at the same position of pagenos
+   * @throws IllegalArgumentException if the arrays differ in length, or a
+   * page does not exist
+   * @throws IllegalStateException if there are not enough unpinned frames;
+   * no page stays pinned in that case
    */
-  public PageId newPage(Page firstpg, int run_size) {
+  public void pinPages(PageId[] pagenos, Page[] mempages) {
 
+      if (pagenos.length != mempages.length)
+          throw new IllegalArgumentException("Page arrays differ in length; pin aborted");
+
+      BufMgr [] byPool = routeAll(pagenos);
+      if (byPool == null) {
+          pinBatch(pagenos, mempages);
+          return;
+      }
+
+      // one batch per pool; if one fails, give back the others' pins
+      BufMgr [] all = pools;
+      int done = 0;
       try {
+          for (; done < all.length; ++done) {
+              int [] picks = picks(byPool, all[done]);
+              if (picks.length == 0)
+                  continue;
+              PageId [] subIds = new PageId[picks.length];
+              Page [] subPages = new Page[picks.length];
+              for (int i = 0; i < picks.length; ++i) {
+                  subIds[i] = pagenos[picks[i]];
+                  subPages[i] = mempages[picks[i]];
+              }
+              all[done].pinBatch(subIds, subPages);
+          }
+      }
+      catch(RuntimeException exc) {
+          for (int d = 0; d < done; ++d) {
+              for (int i : picks(byPool, all[d]))
+                  all[d].unpinPage(pagenos[i], UNPIN_CLEAN);
+          }
+          throw exc;
+      }
+
+  } // public void pinPages(PageId[] pagenos, Page[] mempages)
+
+  /**
+   * Pins a batch of pages that all belong to this pool.
+   */
+  private void pinBatch(PageId[] pagenos, Page[] mempages) {
+
+      // hit path first, without the latch
+      boolean [] pinned = new boolean[pagenos.length];
+      int misses = 0;
+      for (int i = 0; i < pagenos.length; ++i) {
+          FrameDesc frame = lookup(pagenos[i]);
+          pinned[i] = frame != null && pinResident(frame, pagenos[i], mempages[i], PIN_DISKIO);
+          if (!pinned[i])
+              ++misses;
+      }
+      if (misses == 0)
+          return;
+
+      synchronized (missLatch) {
+
+          // collect the pages still missing, sorted and without repeats
+          int [] pids = new int[misses];
+          int count = 0;
+          for (int i = 0; i < pagenos.length; ++i) {
+              if (pinned[i])
+                  continue;
+              FrameDesc frame = lookup(pagenos[i]);
+              if (frame != null && pinResident(frame, pagenos[i], mempages[i], PIN_DISKIO))
+                  pinned[i] = true;
+              else
+                  pids[count++] = pagenos[i].pid;
+          }
+          count = sortDistinct(pids, count);
+
+          try {
+              loadPages(pids, count, 1);
+          }
+          catch(RuntimeException exc) {
+              // give back the pins taken so far
+              for (int i = 0; i < pagenos.length; ++i) {
+                  if (pinned[i])
+                      unpinPage(pagenos[i], UNPIN_CLEAN);
+              }
+              throw exc;
+          }
 
-          PageId tempPageID = Minibase.DiskManager.allocate_page(run_size);
-          if(!bufmap.containsKey(tempPageID))
-              throw new IllegalArgumentException();
-          else {
-              if(getNumUnpinned() == 0)
-                  throw new IllegalStateException();
-              else {
-                  FrameDesc tempFrame = bufmap.get(tempPageID);
-                  firstpg.setPage(tempFrame.getaPage());
-                  pinPage(tempPageID, firstpg, PIN_MEMCPY);
-                  return tempPageID;
+          // the first request for each page takes the load's pin; repeats add pins
+          boolean [] taken = new boolean[count];
+          for (int i = 0; i < pagenos.length; ++i) {
+              if (pinned[i])
+                  continue;
+              FrameDesc frame = lookup(pagenos[i]);
+              int k = Arrays.binarySearch(pids, 0, count, pagenos[i].pid);
+              if (!taken[k]) {
+                  taken[k] = true;
+                  mempages[i].setPage(frame.getaPage());
+              } else {
+                  pinResident(frame, pagenos[i], mempages[i], PIN_DISKIO);
               }
           }
       }
-      catch(IllegalArgumentException e) {
+  }
 
-          //System.err.println("Function: newPage\n catch: IllegalArgumentException\n " + e.getMessage() + "\n");
+  /**
+   * Starts reading a batch of disk pages into the pool in the background,
+   * without pinning them, so that later pins of those pages hit.  The pages
+   * are read in page number order, with each run of consecutive pages read
+   * in a single disk request.  Pages that do not exist are skipped, and no
+   * page is read once every frame is pinned.
+   *
+   * @param pagenos identifies the pages to read
+   */
+  public void prefetch(PageId[] pagenos) {
+
+      BufMgr [] byPool = routeAll(pagenos);
+      if (byPool != null) {
+          for (BufMgr pool : pools) {
+              int [] picks = picks(byPool, pool);
+              if (picks.length == 0)
+                  continue;
+              PageId [] sub = new PageId[picks.length];
+              for (int i = 0; i < picks.length; ++i)
+                  sub[i] = pagenos[picks[i]];
+              pool.prefetchBatch(sub);
+          }
+          return;
       }
-      catch(IllegalStateException e) {
+      prefetchBatch(pagenos);
 
-          //System.err.println("Function: newPage\n catch: IllegalStateException\n " + e.getMessage() + "\n");
+  } // public void prefetch(PageId[] pagenos)
+
+  /**
+   * Queues a prefetch batch of pages that all belong to this pool.
+   */
+  private void prefetchBatch(PageId[] pagenos) {
+
+      int [] pids = new int[pagenos.length];
+      for (int i = 0; i < pagenos.length; ++i)
+          pids[i] = pagenos[i].pid;
+      final int [] batch = Arrays.copyOf(pids, sortDistinct(pids, pids.length));
+
+      Prefetcher pf;
+      synchronized (this) {
+          if (prefetcher == null)
+              prefetcher = new Prefetcher(this);
+          pf = prefetcher;
+      }
+      pf.submit(batch);
+  }
 
+  /**
+   * Tells the buffer manager how a run of pages will be used, as
+   * posix_fadvise does for a file:
+   * <ul>
+   * <li>ADVICE_WILL_NEED prefetches the run in the background.
+   * <li>ADVICE_SEQUENTIAL prefetches the start of the run, as much as
+   * read-ahead would, without waiting for read-ahead to spot the stream.
+   * <li>ADVICE_DONT_NEED makes the resident pages of the run the next
+   * victims of the replacement policy; pinned ones become so at their last
+   * unpin.  Dirty pages are still written back when evicted.
+   * <li>ADVICE_NORMAL and ADVICE_RANDOM take back an earlier DONT_NEED for
+   * pages still pinned.  Read-ahead only ever follows sequential streams,
+   * so random access needs nothing more.
+   * </ul>
+   * Advice is a hint: pages of the run that do not exist are ignored.
+   *
+   * @param firstid identifies the first page of the run
+   * @param run_size number of pages in the run
+   * @param advice one of the ADVICE constants
+   * @throws IllegalArgumentException if the advice or run_size is invalid
+   */
+  public void advise(PageId firstid, int run_size, int advice) {
+
+      if (advice < ADVICE_NORMAL || advice > ADVICE_DONT_NEED)
+          throw new IllegalArgumentException("Invalid advice; advise aborted");
+      if (run_size < 1)
+          throw new IllegalArgumentException("Invalid run size; advise aborted");
+
+      if (advice == ADVICE_WILL_NEED || advice == ADVICE_SEQUENTIAL) {
+          int count = run_size;
+          if (advice == ADVICE_SEQUENTIAL)
+              count = Math.min(run_size, Math.max(1, getNumFrames() / 4));
+          PageId [] pagenos = new PageId[count];
+          for (int i = 0; i < count; ++i)
+              pagenos[i] = new PageId(firstid.pid + i);
+          prefetch(pagenos);
+          return;
       }
 
-      return null;
-  } // public PageId newPage(Page firstpg, int run_size)
+      for (int i = 0; i < run_size; ++i) {
+          PageId pageno = new PageId(firstid.pid + i);
+          route(pageno.pid).adviseResident(pageno, advice == ADVICE_DONT_NEED);
+      }
+
+  } // public void advise(PageId firstid, int run_size, int advice)
 
   /**
-   * Deallocates a single page from disk, freeing it from the pool if needed.
-   * 
-   * @param pageno identifies the page to remove
-   * @throws IllegalArgumentException if the page is pinned
+   * Marks a resident page of this pool as not needed, or as needed again.
    */
-  public void freePage(PageId pageno) {
-      try {
+  private void adviseResident(PageId pageno, boolean dontNeed) {
+
+      FrameDesc frame = lookup(pageno);
+      if (frame == null)
+          return;
+
+      // hold a pin while deciding, so the frame cannot change hands
+      int pins = frame.tryPin();
+      if (pins == FrameDesc.CLAIMED)
+          return;
+      if (pins == 1)
+          numPinned.incrementAndGet();
+      if (frame.getDiskPgNum() == pageno.pid) {
+          // demote at once unless someone else holds a pin
+          frame.dontNeed = dontNeed && pins > 1;
+          if (dontNeed && pins == 1)
+              replPolicy.demote(frame.index);
+      }
+      dropPin(frame);
 
-          if(!bufmap.containsKey(pageno))
-              return;
-
-          FrameDesc temp = bufmap.get(pageno);
-          for (int z = 0; z < numframes; ++z) {
-              if (frametab[z] == temp) {
-                  if (frametab[z].getPinCount() > 0) {
-                      throw new IllegalArgumentException();
-                  }
-                  bufmap.remove(pageno);
-                  Minibase.DiskManager.deallocate_page(pageno);
-                  frametab[z].resetFrame();
+      // the other pins may have gone meanwhile
+      if (frame.dontNeed && frame.getPinCount() == 0) {
+          frame.dontNeed = false;
+          replPolicy.demote(frame.index);
+      }
+  }
+
+  /**
+   * Drops queued prefetch requests and waits for the one being read.
+   */
+  public void cancelPrefetches() {
+
+      for (BufMgr pool : pools) {
+          synchronized (pool) {
+              if (pool.prefetcher != null) {
+                  pool.prefetcher.shutdown();
+                  pool.prefetcher = null;
               }
           }
       }
-      catch(IllegalArgumentException e){
+  }
 
-          //System.err.println("Function: freePage\n catch: IllegalArgumentException\n " + e.getMessage() + "\n");
+  /**
+   * Reads the pages of a prefetch batch that are not resident, each into
+   * the pool it is routed to.
+   *
+   * @param pids page numbers, sorted and distinct
+   */
+  void prefetchPages(int [] pids) {
 
+      BufMgr [] byPool = new BufMgr[pids.length];
+      boolean mine = true;
+      for (int i = 0; i < pids.length; ++i) {
+          byPool[i] = router.route(pids[i]);
+          mine &= byPool[i] == this;
+      }
+      if (!mine) {
+          for (BufMgr pool : router.pools) {
+              int [] picks = picks(byPool, pool);
+              if (picks.length == 0)
+                  continue;
+              int [] sub = new int[picks.length];
+              for (int i = 0; i < picks.length; ++i)
+                  sub[i] = pids[picks[i]];
+              pool.prefetchPages(sub);
+          }
+          return;
       }
-      return;
 
-  } // public void freePage(PageId firstid)
+      synchronized (missLatch) {
+
+          int count = 0;
+          for (int pid : pids) {
+              if (!bufmap.containsKey(pid))
+                  pids[count++] = pid;
+          }
+          numPrefetches.add(loadPages(pids, count, 0));
+      }
+  }
 
   /**
-   * Write all valid and dirty frames to disk.
-   * Note flushing involves only writing, not unpinning or freeing
-   * or the like.
-   * 
+   * Sorts the first count entries of pids and drops repeats.
+   *
+   * @return the number of distinct entries, now at the front
    */
-  public void flushAllFrames() {
+  private static int sortDistinct(int [] pids, int count) {
+
+      Arrays.sort(pids, 0, count);
+      int distinct = 0;
+      for (int i = 0; i < count; ++i) {
+          if (distinct == 0 || pids[i] != pids[distinct - 1])
+              pids[distinct++] = pids[i];
+      }
+      return distinct;
+  }
+
+  /**
+   * Reads a page into the pool it is routed to without pinning it, unless
+   * it is already there.  The frame is marked as prefetched until its first
+   * pin.
+   *
+   * @param stream the read-ahead stream the page is read for, charged if
+   * the page is evicted unused; null for none
+   * @return false if the page does not exist or no frame is free to hold it
+   */
+  boolean prefetchPage(int pid, ReadAhead.Progress stream) {
 
-      for (Map.Entry<PageId, FrameDesc> entry : bufmap.entrySet()) {
+      // read-ahead runs on past the end of this pool's pages
+      BufMgr pool = router.route(pid);
+      if (pool != this)
+          return pool.prefetchPage(pid, stream);
 
-          if (entry.getValue().getDirty() == true && entry.getValue().getValid() == true){
+      if (bufmap.containsKey(pid))
+          return true;
 
-              flushPage(entry.getKey());
+      synchronized (missLatch) {
+
+          if (bufmap.containsKey(pid))
+              return true;
+          try {
+              int frameno = loadPage(new PageId(pid), null, PIN_DISKIO, 0, null);
+              frametab[frameno].prefetchedFor = stream;
+              numPrefetches.increment();
+              return true;
+          }
+          catch(IllegalArgumentException | IllegalStateException exc) {
+              // past the end of the database, or the pool is full of pins
+              return false;
           }
+      }
+  }
+
+  /**
+   * Gets the frame the page table maps a page to, or null.  Takes no lock;
+   * the frame may change hands before the caller pins it.
+   */
+  private FrameDesc lookup(PageId pageno) {
+
+      int frameno = bufmap.get(pageno.pid);
+      return (frameno == -1) ? null : frametab[frameno];
+  }
 
+  /**
+   * Adds a pin to a frame found in the page table.  Returns false if the
+   * frame was claimed or remapped after the lookup, in which case the caller
+   * must retry under the miss latch.
+   */
+  private boolean pinResident(FrameDesc frame, PageId pageno, Page mempage, int contents) {
+
+      int pins = frame.tryPin();
+      if (pins == FrameDesc.CLAIMED)
+          return false;
+      if (pins == 1)
+          numPinned.incrementAndGet();
+
+      // the frame cannot change hands while pinned, so checking afterwards is safe
+      if (frame.getDiskPgNum() != pageno.pid) {
+          dropPin(frame);
+          return false;
       }
-      return;
 
-  } // public void flushAllFrames()
+      if (contents == PIN_MEMCPY) {
+          if (pins > 1) {
+              dropPin(frame);
+              if (awaitCleaner(frame))
+                  return pinResident(frame, pageno, mempage, contents);
+              throw new IllegalArgumentException("Page is already pinned; pin aborted");
+          }
+          frame.beginChange();
+          frame.copyPage(mempage);
+          frame.endChange();
+      }
+
+      if (frame.prefetched) {
+          frame.prefetched = false;
+          numPrefetchHits.increment();
+      }
+
+      replPolicy.hit(frame.index);
+      numHits.increment();
+      mempage.setPage(frame.getaPage());
+      return true;
+  }
 
   /**
-   * Write a page in the buffer pool to disk, if dirty.
-   * 
-   * @throws IllegalArgumentException if the page is not in the buffer pool
+   * Removes a pin, keeping the pinned-frame count current.
+   * Returns false if the frame was not pinned.
    */
-  public void flushPage(PageId pageno) {
+  private boolean dropPin(FrameDesc frame) {
 
-      try {
+      int pins = frame.tryUnpin();
+      if (pins == 0)
+          numPinned.decrementAndGet();
+      return pins != -1;
+  }
 
-          if(!bufmap.containsKey(pageno))
-              throw new IllegalArgumentException();
+  /**
+   * Puts an empty frame on the free list.  Must hold the miss latch.
+   */
+  private void pushFree(int frameno) {
 
-          FrameDesc temp = bufmap.get(pageno);
+      if (frameno >= numframes)
+          return;
+      if (!onFreeList[frameno]) {
+          onFreeList[frameno] = true;
+          freeFrames[numFree++] = frameno;
+      }
+  }
 
-          if(temp.getDirty() == true && temp.getValid() == true) {
-              Minibase.DiskManager.write_page(pageno, temp.getaPage());
+  /**
+   * Picks and claims a victim frame, taking an empty one from the free list
+   * if there is one.  Must hold the miss latch.
+   *
+   * @throws IllegalStateException if all frames are pinned
+   */
+  private int claimVictim() {
+
+      if (numRetiring > 0)
+          retireFrames();
+
+      while (numFree > 0) {
+
+          int frameno = freeFrames[numFree - 1];
+          if (frametab[frameno].getDiskPgNum() != INVALID_PAGEID) {
+              // stale: the policy already gave this frame out
+              onFreeList[frameno] = false;
+              --numFree;
+              continue;
           }
+          if (frametab[frameno].tryClaim()) {
+              onFreeList[frameno] = false;
+              --numFree;
+              return frameno;
+          }
+          // a stale hit holds a pin for a moment; leave it to a later miss
+          break;
       }
-      catch(IllegalArgumentException e) {
 
-          //System.err.println("Function: flushPage\n catch: IllegalArgumentException\n " + e.getMessage() + "\n");
+      for (int tries = 0; tries < numframes; ++tries) {
+
+          int frameno = replPolicy.pickVictim();
+          if (frameno == -1)
+              break;
+
+          // a hit may have pinned the frame since the policy looked at it
+          if (frametab[frameno].tryClaim())
+              return frameno;
       }
+      throw new IllegalStateException("All frames are pinned; pin aborted");
+  }
 
-      return;
+  /**
+   * Claims the frame the ring filled longest ago, if it still holds the
+   * page the ring put there and is not pinned, or else a victim from the
+   * policy, which then takes that place in the ring.  Must hold the miss
+   * latch.
+   *
+   * @param pid the page the frame will hold
+   * @throws IllegalStateException if all frames are pinned
+   */
+  private int claimRingVictim(BufferRing ring, int pid) {
+
+      int slot = ring.next;
+      ring.next = (slot + 1) % ring.frames.length;
+
+      int frameno = ring.frames[slot];
+      if (ring.pools[slot] == this && frameno < numframes
+          && frametab[frameno].getDiskPgNum() == ring.pids[slot]
+          && frametab[frameno].tryClaim()) {
+          numRingReuses.increment();
+      } else {
+          frameno = claimVictim();
+          ring.pools[slot] = this;
+          ring.frames[slot] = frameno;
+      }
+      ring.pids[slot] = pid;
+      return frameno;
   }
 
-   /**
-   * Gets the total number of buffer frames.
+  /**
+   * Makes a frame one of the next victims if it still holds the given page
+   * and nobody has it pinned.
    */
-  public int getNumFrames() {
+  void demoteFrame(int frameno, int pid) {
 
-    return this.numframes;
+      FrameDesc frame = frametab[frameno];
+      if (frame.getDiskPgNum() == pid && frame.getPinCount() == 0)
+          replPolicy.demote(frameno);
   }
 
   /**
-   * Gets the total number of unpinned buffer frames.
+   * Opens a private ring of frames for a bulk operation; see BufferRing.
+   *
+   * @param size number of frames in the ring
+   * @throws IllegalArgumentException if size is less than 1 or more than
+   * the pool's frames
    */
-  public int getNumUnpinned() {
+  public BufferRing newRing(int size) {
 
+      if (size < 1 || size > getNumFrames())
+          throw new IllegalArgumentException("Invalid ring size");
+      return new BufferRing(size);
+  }
 
-      int count = 0;
-      for (Map.Entry<PageId, FrameDesc> entry : bufmap.entrySet()) {
+  /**
+   * Writes a claimed victim back if dirty and removes it from the page table.
+   * The frame's page number is the reverse mapping, so this is O(1).
+   * Must hold the miss latch.
+   */
+  private void evictFrame(FrameDesc victim) {
+
+      int pid = victim.getDiskPgNum();
+      if (pid == INVALID_PAGEID)
+          return;
+
+      EvictionEvent event = new EvictionEvent();
+      event.begin();
+      replPolicy.evicted(victim.index);
+      numEvictions.increment();
+      if (victim.prefetched) {
+          victim.prefetched = false;
+          numPrefetchWasted.increment();
+          ReadAhead.Progress stream = victim.prefetchedFor;
+          if (stream != null)
+              stream.wasted.incrementAndGet();
+      }
+      boolean dirty = victim.markClean();
+      if (dirty) {
+          numDirty.decrementAndGet();
+          numDirtyEvictions.increment();
+          Minibase.DiskManager.write_page(new PageId(pid), victim.getaPage());
+      }
+      bufmap.remove(pid);
+      victim.setDiskPageNumber(INVALID_PAGEID);
+      numResident.decrementAndGet();
+      if (event.shouldCommit()) {
+          event.pageId = pid;
+          event.frame = victim.index;
+          event.dirty = dirty;
+          event.pool = poolName;
+          event.commit();
+      }
+  }
 
-          if (entry.getValue().getPinCount() == 0)
-              ++count;
+  /**
+   * Starts an optimistic read of a page in the buffer pool.  No pin is
+   * taken and nothing is written: mempage is pointed at the page's frame,
+   * and the returned stamp records the frame's version.  The caller reads
+   * what it needs from mempage and then calls validate; if that fails, the
+   * frame was evicted, reloaded, or changed while it read, and whatever was
+   * read must be discarded.  Until validated, the data may be torn, so the
+   * caller must be ready for nonsense values, including ones that make it
+   * throw.<br><br>
+   *
+   * A stamp is invalidated when the frame is evicted, loaded, freed or
+   * copied into with PIN_MEMCPY, when the page is unpinned dirty, and when
+   * it is latched exclusively.
+   *
+   * @param pageno identifies the page to read
+   * @param mempage output parameter referring to the page's frame
+   * @return the stamp, or 0 if the page is not in the pool or is changing;
+   * the caller should then pin it instead
+   */
+  public long tryOptimisticRead(PageId pageno, Page mempage) {
+
+      BufMgr pool = route(pageno.pid);
+      if (pool != this) {
+          long stamp = pool.tryOptimisticRead(pageno, mempage);
+          return (stamp == 0) ? 0 : stamp | ((long) pool.poolId << POOL_SHIFT);
+      }
+
+      int frameno = bufmap.get(pageno.pid);
+      if (frameno == -1)
+          return 0;
+
+      FrameDesc frame = frametab[frameno];
+      int version = frame.getVersion();
+      if ((version & 1) != 0 || frame.getDiskPgNum() != pageno.pid)
+          return 0;
+      mempage.setPage(frame.getaPage());
+      return ((long) version << 32) | frameno;
+
+  } // public long tryOptimisticRead(PageId pageno, Page mempage)
+
+  /**
+   * Checks that nothing changed the frame read under a stamp from
+   * tryOptimisticRead since the stamp was taken.
+   *
+   * @return true if the data read is consistent and may be used
+   */
+  public boolean validate(long stamp) {
+
+      if (stamp == 0)
+          return false;
+      int id = (int) stamp >>> POOL_SHIFT;
+      if (id != 0)
+          return poolAt(id, "validate").validate(stamp & ~((long) id << POOL_SHIFT));
+
+      // keep the caller's reads of the page from moving past the check
+      VarHandle.acquireFence();
+      FrameDesc frame = frametab[(int) stamp];
+      return frame.getVersion() == (int) (stamp >>> 32);
+
+  } // public boolean validate(long stamp)
+
+  /**
+   * Unpins a disk page from the buffer pool, decreasing its pin count.
+   * 
+   * @param pageno identifies the page to unpin
+   * @param dirty UNPIN_DIRTY if the page was modified, UNPIN_CLEAN otherwise
+   * @throws IllegalArgumentException if the page is not in the buffer pool
+   *  or not pinned
+   */
+  public void unpinPage(PageId pageno, boolean dirty) {
+
+      BufMgr pool = route(pageno.pid);
+      if (pool != this) {
+          pool.unpinPage(pageno, dirty);
+          return;
+      }
+
+      FrameDesc frame = lookup(pageno);
+      if (frame == null)
+          throw new IllegalArgumentException("Page not in the buffer pool; unpin aborted");
+      unpin(frame, dirty);
+
+  } // public void unpinPage(PageId pageno, boolean dirty)
+
+  /**
+   * Unpins a disk page, as unpinPage does, with advice about its future
+   * use: ADVICE_DONT_NEED makes it one of the next victims once nobody
+   * holds a pin on it, and ADVICE_WILL_NEED counts as another reference, so
+   * the policy keeps it longer.
+   *
+   * @param advice one of the ADVICE constants
+   * @throws IllegalArgumentException as for unpinPage, or if the advice is
+   * invalid
+   */
+  public void unpinPage(PageId pageno, boolean dirty, int advice) {
+
+      if (advice < ADVICE_NORMAL || advice > ADVICE_DONT_NEED)
+          throw new IllegalArgumentException("Invalid advice; unpin aborted");
+
+      BufMgr pool = route(pageno.pid);
+      if (pool != this) {
+          pool.unpinPage(pageno, dirty, advice);
+          return;
       }
-      return count;
+
+      FrameDesc frame = lookup(pageno);
+      if (frame == null)
+          throw new IllegalArgumentException("Page not in the buffer pool; unpin aborted");
+      if (advice == ADVICE_DONT_NEED)
+          frame.dontNeed = true;
+      else if (advice == ADVICE_WILL_NEED)
+          replPolicy.hit(frame.index);
+      unpin(frame, dirty);
+
+  } // public void unpinPage(PageId pageno, boolean dirty, int advice)
+
+  /**
+   * Unpins the page in a frame, given the handle pinFrame returned for it.
+   *
+   * @param handle the frame handle
+   * @param dirty UNPIN_DIRTY if the page was modified, UNPIN_CLEAN otherwise
+   * @throws IllegalArgumentException if the handle is invalid or the frame
+   * is not pinned
+   */
+  public void unpinFrame(int handle, boolean dirty) {
+
+      int id = handle >>> POOL_SHIFT;
+      if (id != 0) {
+          poolAt(id, "unpin").unpinFrame(handle & FRAME_MASK, dirty);
+          return;
+      }
+
+      if (handle < 0 || handle >= frametab.length)
+          throw new IllegalArgumentException("Invalid frame handle; unpin aborted");
+      unpin(frametab[handle], dirty);
+
+  } // public void unpinFrame(int handle, boolean dirty)
+
+  /**
+   * Removes a caller's pin from a frame.
+   */
+  private void unpin(FrameDesc frame, boolean dirty) {
+
+      // check before marking dirty, so a rejected unpin changes nothing
+      int pins = frame.getPinCount();
+      if (pins < 1)
+          throw new IllegalArgumentException("Page is not pinned; unpin aborted");
+
+      // the last pin holds the page in place, so it must outlast any latch
+      if (pins == 1 && frame.getLatch() != 0)
+          throw new IllegalStateException("Page is latched; unpin aborted");
+
+      // mark dirty before dropping the pin, or an eviction could miss it
+      if (dirty) {
+          frame.changed();
+          if (frame.markDirty()) {
+              numDirty.incrementAndGet();
+              PageCleaner pc = cleaner;
+              if (pc != null)
+                  pc.dirtied();
+          }
+      }
+
+      if (!dropPin(frame))
+          throw new IllegalArgumentException("Page is not pinned; unpin aborted");
+
+      replPolicy.unpinned(frame.index);
+      numUnpins.increment();
+      if (frame.dontNeed && frame.getPinCount() == 0) {
+          frame.dontNeed = false;
+          replPolicy.demote(frame.index);
+      }
+  }
+
+  /**
+   * Pins a page, as pinPage does, and then latches it.
+   *
+   * @param latchMode LATCH_SHARED or LATCH_EXCLUSIVE
+   * @throws IllegalArgumentException as for pinPage, or if latchMode is invalid
+   * @throws IllegalStateException if all pages are pinned (i.e. pool is full)
+   */
+  public void pinPage(PageId pageno, Page mempage, int contents, int latchMode) {
+
+      if (latchMode != LATCH_SHARED && latchMode != LATCH_EXCLUSIVE)
+          throw new IllegalArgumentException("Invalid latch mode; pin aborted");
+      pinPage(pageno, mempage, contents);
+      latchPage(pageno, latchMode);
+
+  } // public void pinPage(PageId pageno, Page mempage, int contents, int latchMode)
+
+  /**
+   * Latches a page the caller has pinned, waiting for conflicting holders.
+   * Pins only keep a page in the pool; latches order access to its
+   * contents.  Any number of threads may hold a page's latch in shared mode
+   * at once, to read it, or one thread in exclusive mode, to change it.
+   * Latches are not reentrant.  While a page is latched exclusively,
+   * optimistic reads of it fail, and releasing the latch invalidates their
+   * stamps.  Unlatch before dropping the last pin.
+   *
+   * @param latchMode LATCH_SHARED or LATCH_EXCLUSIVE
+   * @throws IllegalArgumentException if the page is not pinned, or
+   * latchMode is invalid
+   */
+  public void latchPage(PageId pageno, int latchMode) {
+
+      BufMgr pool = route(pageno.pid);
+      if (pool != this) {
+          pool.latchPage(pageno, latchMode);
+          return;
+      }
+
+      FrameDesc frame = pinnedFrame(pageno, "latch");
+      if (latchMode == LATCH_SHARED) {
+          for (int spins = 0; !frame.tryLatchShared(); ++spins)
+              backOff(spins);
+      } else if (latchMode == LATCH_EXCLUSIVE) {
+          for (int spins = 0; !frame.tryLatchExclusive(); ++spins)
+              backOff(spins);
+      } else {
+          throw new IllegalArgumentException("Invalid latch mode; latch aborted");
+      }
+
+  } // public void latchPage(PageId pageno, int latchMode)
+
+  /**
+   * Turns the caller's shared latch on a page into an exclusive one, if no
+   * other thread holds the latch.  This does not wait: two readers waiting
+   * for each other to leave would never finish.  On failure the caller
+   * keeps its shared latch, and can release it and latch exclusively.
+   *
+   * @return true if the caller now holds the latch exclusively
+   * @throws IllegalArgumentException if the page is not pinned
+   */
+  public boolean tryUpgradeLatch(PageId pageno) {
+
+      BufMgr pool = route(pageno.pid);
+      if (pool != this)
+          return pool.tryUpgradeLatch(pageno);
+      return pinnedFrame(pageno, "upgrade").tryUpgrade();
+
+  } // public boolean tryUpgradeLatch(PageId pageno)
+
+  /**
+   * Turns the caller's exclusive latch on a page into a shared one,
+   * letting other readers in without a window for writers.
+   *
+   * @throws IllegalArgumentException if the page is not latched exclusively
+   */
+  public void downgradeLatch(PageId pageno) {
+
+      BufMgr pool = route(pageno.pid);
+      if (pool != this) {
+          pool.downgradeLatch(pageno);
+          return;
+      }
+
+      FrameDesc frame = pinnedFrame(pageno, "downgrade");
+      if (frame.getLatch() != FrameDesc.EXCLUSIVE)
+          throw new IllegalArgumentException("Page is not latched exclusively; downgrade aborted");
+      frame.downgrade();
+
+  } // public void downgradeLatch(PageId pageno)
+
+  /**
+   * Releases the caller's latch on a page, in whichever mode it holds it.
+   *
+   * @throws IllegalArgumentException if the page is not latched
+   */
+  public void unlatchPage(PageId pageno) {
+
+      BufMgr pool = route(pageno.pid);
+      if (pool != this) {
+          pool.unlatchPage(pageno);
+          return;
+      }
+
+      if (!pinnedFrame(pageno, "unlatch").unlatch())
+          throw new IllegalArgumentException("Page is not latched; unlatch aborted");
+
+  } // public void unlatchPage(PageId pageno)
+
+  /**
+   * Gets the frame of a pinned page, for the named latch operation.
+   *
+   * @throws IllegalArgumentException if the page is not pinned
+   */
+  private FrameDesc pinnedFrame(PageId pageno, String operation) {
+
+      FrameDesc frame = lookup(pageno);
+      if (frame == null || frame.getPinCount() <= 0)
+          throw new IllegalArgumentException("Page is not pinned; " + operation + " aborted");
+      return frame;
+  }
+
+  /**
+   * Waits a little before retrying a latch: spins at first, then yields.
+   */
+  private static void backOff(int spins) {
+
+      if (spins < 64)
+          Thread.onSpinWait();
+      else
+          Thread.yield();
+  }
+
+
+  /**
+   * Allocates a run of new disk pages and pins the first one in the buffer pool.
+   * The pin will be made using PIN_MEMCPY.  Watch out for disk page leaks.
+   * 
+   * @param firstpg input and output: holds the contents of the first allocated page
+   * and refers to the frame where it resides
+   * @param run_size input: number of pages to allocate
+   * @return page id of the first allocated page
+   * @throws IllegalArgumentException if firstpg is already pinned
+   * @throws IllegalStateException if all pages are pinned (i.e. pool exceeded)
+   */
+  public PageId newPage(Page firstpg, int run_size) {
+
+      PageId firstid = Minibase.DiskManager.allocate_page(run_size);
+      try {
+          pinPage(firstid, firstpg, PIN_MEMCPY);
+      }
+      catch(RuntimeException exc) {
+          // don't leak the run if it can't be pinned
+          Minibase.DiskManager.deallocate_page(firstid, run_size);
+          throw exc;
+      }
+      return firstid;
+
+  } // public PageId newPage(Page firstpg, int run_size)
+
+  /**
+   * Deallocates a single page from disk, freeing it from the pool if needed.
+   * 
+   * @param pageno identifies the page to remove
+   * @throws IllegalArgumentException if the page is pinned
+   */
+  public void freePage(PageId pageno) {
+
+      BufMgr pool = route(pageno.pid);
+      if (pool != this) {
+          pool.freePage(pageno);
+          return;
+      }
+
+      synchronized (missLatch) {
+
+          FrameDesc frame = lookup(pageno);
+          if (frame != null) {
+              while (!frame.tryClaim()) {
+                  if (!awaitCleaner(frame))
+                      throw new IllegalArgumentException("Page is pinned; free aborted");
+              }
+              dropFrame(frame, false);
+          }
+      }
+
+      // the space map may live in another pool or shard, so update it
+      // without holding this one's latch
+      Minibase.DiskManager.deallocate_page(pageno);
+      numFrees.increment();
+
+  } // public void freePage(PageId firstid)
+
+  /**
+   * Removes the page in a claimed frame from the pool, writing it first if
+   * asked to and it is dirty, and puts the frame on the free list.  Must
+   * hold the miss latch.
+   */
+  private void dropFrame(FrameDesc frame, boolean write) {
+
+      int pid = frame.getDiskPgNum();
+      bufmap.remove(pid);
+      replPolicy.freed(frame.index);
+      if (frame.markClean()) {
+          numDirty.decrementAndGet();
+          if (write)
+              Minibase.DiskManager.write_page(new PageId(pid), frame.getaPage());
+      }
+      frame.resetFrame();
+      numResident.decrementAndGet();
+      pushFree(frame.index);
+  }
+
+  /**
+   * Write all valid and dirty frames to disk.
+   * Note flushing involves only writing, not unpinning or freeing
+   * or the like.  The pages are written in page number order, each run of
+   * consecutive pages in a single disk write.
+   * 
+   */
+  public void flushAllFrames() {
+
+      FlushAllEvent event = new FlushAllEvent();
+      event.begin();
+      int written = 0;
+      for (BufMgr pool : pools)
+          written += pool.flushRange(0, Integer.MAX_VALUE);
+      if (event.shouldCommit()) {
+          event.pages = written;
+          event.commit();
+      }
+
+  } // public void flushAllFrames()
+
+  /**
+   * Writes the dirty pages of a run of disk pages that are in the buffer
+   * pool, in page number order, each run of consecutive pages in a single
+   * disk write.  Pages of the run that are not in the pool are skipped.
+   *
+   * @param firstid identifies the first page of the run
+   * @param run_size number of pages in the run
+   * @return number of pages written
+   * @throws IllegalArgumentException if run_size is negative
+   */
+  public int flushPages(PageId firstid, int run_size) {
+
+      if (run_size < 0)
+          throw new IllegalArgumentException("Invalid run size; flush aborted");
+      long end = (long) firstid.pid + run_size;
+      int written = 0;
+      for (BufMgr pool : pools)
+          written += pool.flushRange(firstid.pid, (int) Math.min(end, Integer.MAX_VALUE));
+      return written;
+
+  } // public int flushPages(PageId firstid, int run_size)
+
+  /**
+   * Gets the pages resident in every pool, hottest first as ranked by each
+   * pool's replacement policy, so the pool's contents can be saved and read
+   * back in after a restart.  The list is a snapshot taken without the miss
+   * latch; pages may come and go while it is taken.
+   */
+  public PageId[] getResidentPages() {
+
+      int count = 0;
+      for (BufMgr pool : pools)
+          count += pool.numframes;
+      final long [] hot = new long[count];
+      int [] pids = new int[count];
+      count = 0;
+      for (BufMgr pool : pools) {
+          FrameDesc [] tab = pool.frametab;
+          for (int i = 0, n = Math.min(pool.numframes, tab.length); i < n && count < pids.length; ++i) {
+              int pid = tab[i].getDiskPgNum();
+              if (pid == INVALID_PAGEID)
+                  continue;
+              hot[count] = pool.replPolicy.hotness(i);
+              pids[count++] = pid;
+          }
+      }
+
+      Integer [] order = new Integer[count];
+      for (int i = 0; i < count; ++i)
+          order[i] = i;
+      Arrays.sort(order, (a, b) -> Long.compare(hot[b], hot[a]));
+      PageId [] pagenos = new PageId[count];
+      for (int i = 0; i < count; ++i)
+          pagenos[i] = new PageId(pids[order[i]]);
+      return pagenos;
+
+  } // public PageId[] getResidentPages()
+
+  /**
+   * Writes the dirty resident pages numbered from first up to, not
+   * including, end.
+   *
+   * @return number of pages written
+   */
+  private int flushRange(int first, int end) {
+
+      synchronized (missLatch) {
+
+          long start = System.nanoTime();
+
+          // page number in the high half, frame number in the low half,
+          // so sorting the keys sorts the frames by page number
+          FrameDesc [] tab = frametab;
+          long [] keys = new long[tab.length];
+          int count = 0;
+          for (FrameDesc frame : tab) {
+              int pid = frame.getDiskPgNum();
+              if (pid >= first && pid < end && frame.getDirty())
+                  keys[count++] = ((long) pid << 32) | frame.index;
+          }
+          Arrays.sort(keys, 0, count);
+
+          int written = 0;
+          for (int lo = 0, hi; lo < count; lo = hi) {
+
+              for (hi = lo + 1; hi < count && (keys[hi] >>> 32) == (keys[hi - 1] >>> 32) + 1; ++hi)
+                  ;
+
+              // clear first so a concurrent dirty unpin is not lost; a frame
+              // the cleaner got to meanwhile ends the run early
+              Page [] run = new Page[hi - lo];
+              int n = 0;
+              for (; n < run.length; ++n) {
+                  FrameDesc frame = frametab[(int) keys[lo + n]];
+                  if (!frame.markClean())
+                      break;
+                  numDirty.decrementAndGet();
+                  run[n] = frame.getaPage();
+              }
+              if (n < run.length) {
+                  run = Arrays.copyOf(run, n);
+                  hi = lo + n + 1;
+              }
+              if (n == 0)
+                  continue;
+
+              PageId firstid = new PageId((int) (keys[lo] >>> 32));
+              if (n == 1)
+                  Minibase.DiskManager.write_page(firstid, run[0]);
+              else
+                  Minibase.DiskManager.write_pages(firstid, run);
+              written += n;
+              numFlushRuns.increment();
+          }
+
+          numFlushWrites.add(written);
+          flushNanos.add(System.nanoTime() - start);
+          return written;
+      }
+  }
+
+  /**
+   * Write a page in the buffer pool to disk, if dirty.
+   * 
+   * @throws IllegalArgumentException if the page is not in the buffer pool
+   */
+  public void flushPage(PageId pageno) {
+
+      BufMgr pool = route(pageno.pid);
+      if (pool != this) {
+          pool.flushPage(pageno);
+          return;
+      }
+
+      long start = System.nanoTime();
+      synchronized (missLatch) {
+
+          FrameDesc temp = lookup(pageno);
+          if (temp == null)
+              throw new IllegalArgumentException("Page not in the buffer pool; flush aborted");
+
+          // clear first so a concurrent dirty unpin is not lost
+          if (temp.markClean()) {
+              numDirty.decrementAndGet();
+              Minibase.DiskManager.write_page(pageno, temp.getaPage());
+          }
+      }
+      flushLatency.record(System.nanoTime() - start);
+
+  }
+
+  /**
+   * Starts a background thread that writes dirty unpinned frames back,
+   * so that misses rarely have to write a victim before reading.  Replaces
+   * any cleaner already running.
+   *
+   * @param dirtyTarget share of the frames (0 to 1) allowed to stay dirty
+   * @param writesPerSecond most pages the cleaner may write per second
+   * @throws IllegalArgumentException if either setting is out of range
+   */
+  public void startPageCleaner(double dirtyTarget, int writesPerSecond) {
+
+      if (dirtyTarget < 0 || dirtyTarget > 1 || writesPerSecond < 1)
+          throw new IllegalArgumentException("Invalid page cleaner settings");
+
+      stopPageCleaner();
+      for (BufMgr pool : pools) {
+          synchronized (pool) {
+              pool.cleaner = new PageCleaner(pool, dirtyTarget, writesPerSecond);
+              pool.cleaner.start();
+          }
+      }
+  }
+
+  /**
+   * Stops the background page cleaner, if running, and waits for it.
+   */
+  public void stopPageCleaner() {
+
+      for (BufMgr pool : pools) {
+          synchronized (pool) {
+              if (pool.cleaner != null) {
+                  pool.cleaner.shutdown();
+                  pool.cleaner = null;
+              }
+          }
+      }
+  }
+
+  /**
+   * Starts detecting sequential PIN_DISKIO access, per thread, and reading
+   * the following pages into free frames in the background.  The window of
+   * pages read ahead starts small, doubles while prefetched pages get used
+   * and halves when they are evicted unused.  Replaces any read-ahead
+   * already running.
+   *
+   * @param maxWindow most pages one stream may read ahead at a time
+   * @throws IllegalArgumentException if maxWindow is less than 1
+   */
+  public void startReadAhead(int maxWindow) {
+
+      if (maxWindow < 1)
+          throw new IllegalArgumentException("Invalid read-ahead window");
+
+      stopReadAhead();
+      for (BufMgr pool : pools) {
+          synchronized (pool) {
+              pool.readAhead = new ReadAhead(pool, Math.min(maxWindow, Math.max(1, pool.numframes / 4)));
+          }
+      }
+  }
+
+  /**
+   * Stops read-ahead, if running, and waits for pages already being read.
+   */
+  public void stopReadAhead() {
+
+      for (BufMgr pool : pools) {
+          synchronized (pool) {
+              if (pool.readAhead != null) {
+                  pool.readAhead.shutdown();
+                  pool.readAhead = null;
+              }
+          }
+      }
+  }
+
+  /**
+   * Stops the page cleaner, read-ahead and queued prefetches of every pool,
+   * and waits for them, so that nothing but the caller touches the pool or
+   * the disk afterwards.  The buffer manager stays usable.
+   */
+  public void stopBackgroundThreads() {
+
+      stopPageCleaner();
+      stopReadAhead();
+      cancelPrefetches();
+  }
+
+  /**
+   * Resizes the buffer pool while it is in use.  Growing adds empty frames
+   * at once.  Shrinking takes the frames past the new size out of the
+   * replacement policy, so they get no new pages, then evicts their pages
+   * one at a time, writing dirty ones back, and lets go of their buffers.
+   * Misses may run between evictions and hits never wait.  Pages still
+   * pinned stay where they are, and are evicted by the first miss after
+   * their last unpin.
+   *
+   * A pool split into shards splits the new size evenly between them.
+   *
+   * @param newFrames the new number of frames
+   * @return the number of frames still holding pinned pages, to be
+   * retired later
+   * @throws IllegalArgumentException if newFrames is out of range
+   */
+  public int resize(int newFrames) {
+
+      BufMgr [] all = shards;
+      if (newFrames < all.length || newFrames / all.length >= FRAME_MASK)
+          throw new IllegalArgumentException("Invalid pool size; resize aborted");
+
+      int retiring = 0;
+      for (int i = 0; i < all.length; ++i)
+          retiring += all[i].resizeFrames(shardSize(newFrames, all.length, i));
+      return retiring;
+
+  } // public int resize(int newFrames)
+
+  /**
+   * Resizes this pool alone, as resize describes.
+   */
+  private synchronized int resizeFrames(int newFrames) {
+
+      synchronized (missLatch) {
+
+          FrameDesc [] tab = frametab;
+          if (newFrames > tab.length) {
+              // new frames first, then a page table big enough for them
+              tab = Arrays.copyOf(tab, newFrames);
+              for (int i = frametab.length; i < newFrames; ++i)
+                  tab[i] = new FrameDesc(i);
+              freeFrames = Arrays.copyOf(freeFrames, newFrames);
+              onFreeList = Arrays.copyOf(onFreeList, newFrames);
+              frametab = tab;
+              PageTable grown = new PageTable(newFrames);
+              for (FrameDesc frame : tab) {
+                  if (frame.getDiskPgNum() != INVALID_PAGEID)
+                      grown.put(frame.getDiskPgNum(), frame.index);
+              }
+              bufmap = grown;
+          }
+
+          int oldFrames = numframes;
+          if (newFrames < oldFrames) {
+              for (int i = newFrames; i < oldFrames; ++i)
+                  replPolicy.freed(i);
+              int kept = 0;
+              for (int i = 0; i < numFree; ++i) {
+                  if (freeFrames[i] < newFrames)
+                      freeFrames[kept++] = freeFrames[i];
+                  else
+                      onFreeList[freeFrames[i]] = false;
+              }
+              numFree = kept;
+          }
+          replPolicy.resize(tab, newFrames);
+          numframes = newFrames;
+
+          // frames taken back: give the retired ones buffers again and tell
+          // the policy about pages that never left
+          for (int i = oldFrames; i < newFrames; ++i) {
+              FrameDesc frame = tab[i];
+              if (frame.getDiskPgNum() != INVALID_PAGEID) {
+                  replPolicy.pinned(i);
+                  if (frame.getPinCount() == 0)
+                      replPolicy.unpinned(i);
+                  continue;
+              }
+              if (frame.isRetired()) {
+                  // only a stale hit can hold a pin on it, and not for long
+                  while (!frame.tryClaim())
+                      Thread.yield();
+                  frame.revive(spareBuffer());
+                  frame.resetFrame();
+              }
+              pushFree(i);
+          }
+          numRetiring = 0;
+          for (int i = newFrames; i < tab.length; ++i) {
+              if (tab[i].getDiskPgNum() != INVALID_PAGEID)
+                  ++numRetiring;
+          }
+      }
+
+      // give up the frames past the new size, letting misses in between
+      FrameDesc [] tab = frametab;
+      for (int i = newFrames; i < tab.length; ++i) {
+          synchronized (missLatch) {
+              retireFrame(tab[i]);
+          }
+      }
+      synchronized (missLatch) {
+          return numRetiring;
+      }
+  }
+
+  /**
+   * Retires every frame past the pool's size that can be retired now.
+   * Must hold the miss latch.
+   */
+  private void retireFrames() {
+
+      FrameDesc [] tab = frametab;
+      for (int i = numframes; i < tab.length && numRetiring > 0; ++i)
+          retireFrame(tab[i]);
+  }
+
+  /**
+   * Evicts the page of a frame past the pool's size, writing it back if
+   * dirty, and lets go of the frame's buffer.  Leaves the frame alone if
+   * it is pinned or already retired.  Must hold the miss latch.
+   */
+  private void retireFrame(FrameDesc frame) {
+
+      if (frame.index < numframes || frame.isRetired() || !frame.tryClaim())
+          return;
+
+      int pid = frame.getDiskPgNum();
+      if (pid != INVALID_PAGEID) {
+          bufmap.remove(pid);
+          if (frame.markClean()) {
+              numDirty.decrementAndGet();
+              Minibase.DiskManager.write_page(new PageId(pid), frame.getaPage());
+          }
+          numResident.decrementAndGet();
+          --numRetiring;
+      }
+      spareBuffers.push(new SoftReference<byte []>(frame.retire()));
+  }
+
+  /**
+   * Takes a buffer a retired frame gave up, if the garbage collector has
+   * not claimed them all, or else allocates one.  Must hold the miss latch.
+   */
+  private byte [] spareBuffer() {
+
+      while (!spareBuffers.isEmpty()) {
+          byte [] data = spareBuffers.pop().get();
+          if (data != null)
+              return data;
+      }
+      return new byte[PAGE_SIZE];
+  }
+
+  /**
+   * Adds a named pool with its own frames and replacement policy.  Pages
+   * go to it only once routed there with routePages.  Page cleaning and
+   * read-ahead started later apply to every pool.
+   *
+   * @param name a name no other pool of this buffer manager has
+   * @param numframes number of frames in the new pool
+   * @param replacerArg the new pool's replacement policy, as for the
+   * BufMgr(int, String) constructor
+   * @return the new pool, for its statistics; pin pages through this
+   * buffer manager, not through the pool
+   * @throws IllegalArgumentException if the name is taken, the size is
+   * out of range, or the policy is unknown
+   */
+  public synchronized BufMgr addPool(String name, int numframes, String replacerArg) {
+
+      if (getPool(name) != null)
+          throw new IllegalArgumentException("Pool " + name + " already exists");
+      if (numframes < 1 || numframes > FRAME_MASK)
+          throw new IllegalArgumentException("Invalid pool size");
+      if (pools.length == MAX_POOLS)
+          throw new IllegalArgumentException("Too many pools");
+
+      BufMgr pool = new BufMgr(numframes, replacerArg);
+      pool.poolId = pools.length;
+      pool.poolName = name;
+      pool.router = this;
+      BufMgr [] grown = Arrays.copyOf(pools, pools.length + 1);
+      grown[pool.poolId] = pool;
+      pools = grown;
+      return pool;
+
+  } // public synchronized BufMgr addPool(String name, int numframes, String replacerArg)
+
+  /**
+   * Routes a run of disk pages to the named pool, ahead of any earlier rule
+   * for them.  Pages of the run held in other pools are written back if
+   * dirty and dropped from those pools, so route pages while they are not
+   * in use.
+   *
+   * @param name the pool, or DEFAULT_POOL for this buffer manager's own
+   * @param firstid identifies the first page of the run
+   * @param run_size number of pages in the run
+   * @throws IllegalArgumentException if there is no such pool or run_size
+   * is invalid
+   * @throws IllegalStateException if a page of the run is pinned in
+   * another pool
+   */
+  public synchronized void routePages(String name, PageId firstid, int run_size) {
+
+      BufMgr target = getPool(name);
+      if (target == null)
+          throw new IllegalArgumentException("No pool named " + name);
+      if (run_size < 1)
+          throw new IllegalArgumentException("Invalid run size; route aborted");
+
+      // publish the rule first, so no other pool loads the pages again
+      // once they are dropped; take it back if one of them is pinned
+      int end = (int) Math.min((long) firstid.pid + run_size, Integer.MAX_VALUE);
+      Route [] before = routes;
+      Route [] grown = new Route[before.length + 1];
+      grown[0] = new Route(firstid.pid, end, target);
+      System.arraycopy(before, 0, grown, 1, before.length);
+      routes = grown;
+
+      // routed back to the default pool, pages go to their own shards
+      try {
+          for (BufMgr pool : pools) {
+              boolean home = (target == this) ? Arrays.asList(shards).contains(pool) : pool == target;
+              if (!home)
+                  pool.dropRange(firstid.pid, end);
+          }
+      }
+      catch(IllegalStateException exc) {
+          routes = before;
+          throw exc;
+      }
+
+  } // public synchronized void routePages(String name, PageId firstid, int run_size)
+
+  /**
+   * Gets the named pool, or null if there is none.
+   *
+   * @param name a pool name, or DEFAULT_POOL for this buffer manager itself
+   */
+  public BufMgr getPool(String name) {
+
+      for (BufMgr pool : pools) {
+          if (pool.poolName.equals(name))
+              return pool;
+      }
+      return null;
+  }
+
+  /**
+   * Gets the name of this pool.
+   */
+  public String getName() {
+
+      return poolName;
+  }
+
+  /**
+   * Gets the name of the pool a page is routed to.
+   */
+  public String getPoolName(PageId pageno) {
+
+      return route(pageno.pid).poolName;
+  }
+
+  /**
+   * Gets the pool a page is routed to.
+   */
+  private BufMgr route(int pid) {
+
+      Route [] table = routes;
+      for (Route rule : table) {
+          if (pid >= rule.first && pid < rule.end)
+              return (rule.pool == this) ? shard(pid) : rule.pool;
+      }
+      return shard(pid);
+  }
+
+  /**
+   * Gets the shard of the default pool that holds a page.
+   */
+  private BufMgr shard(int pid) {
+
+      BufMgr [] all = shards;
+      if (all.length == 1)
+          return this;
+      return all[((pid >>> EXTENT_SHIFT) * 0x9E3779B9) >>> shardShift];
+  }
+
+  /**
+   * Gets the pool each page of a batch is routed to, or null if this pool
+   * is the only one.
+   */
+  private BufMgr [] routeAll(PageId[] pagenos) {
+
+      if (routes.length == 0 && shards.length == 1)
+          return null;
+      BufMgr [] byPool = new BufMgr[pagenos.length];
+      for (int i = 0; i < pagenos.length; ++i)
+          byPool[i] = route(pagenos[i].pid);
+      return byPool;
+  }
+
+  /**
+   * Gets the positions of a batch routed to the given pool.
+   */
+  private static int [] picks(BufMgr [] byPool, BufMgr pool) {
+
+      int count = 0;
+      for (BufMgr p : byPool) {
+          if (p == pool)
+              ++count;
+      }
+      int [] picks = new int[count];
+      count = 0;
+      for (int i = 0; i < byPool.length; ++i) {
+          if (byPool[i] == pool)
+              picks[count++] = i;
+      }
+      return picks;
+  }
+
+  /**
+   * Gets a pool by number, for a frame handle or stamp naming it.
+   *
+   * @throws IllegalArgumentException if there is no such pool
+   */
+  private BufMgr poolAt(int id, String operation) {
+
+      BufMgr [] all = pools;
+      if (id >= all.length)
+          throw new IllegalArgumentException("Invalid frame handle; " + operation + " aborted");
+      return all[id];
+  }
+
+  /**
+   * Drops every page numbered from first up to, not including, end from
+   * this pool, writing dirty ones back.
+   *
+   * @throws IllegalStateException if one of them is pinned
+   */
+  private void dropRange(int first, int end) {
+
+      synchronized (missLatch) {
+          for (FrameDesc frame : frametab) {
+              int pid = frame.getDiskPgNum();
+              if (pid < first || pid >= end)
+                  continue;
+              while (!frame.tryClaim()) {
+                  if (!awaitCleaner(frame))
+                      throw new IllegalStateException("Page " + pid + " is pinned; route aborted");
+              }
+              dropFrame(frame, true);
+          }
+      }
+  }
+
+  /**
+   * Writes a frame back if it is dirty and nobody holds a pin on it.  The
+   * cleaner pins the frame itself for the duration of the write, so the
+   * frame can be neither evicted nor freed meanwhile.
+   *
+   * @return true if the frame was written
+   */
+  boolean writeBack(int frameno) {
+
+      FrameDesc frame = frametab[frameno];
+      if (!frame.getDirty() || frame.getPinCount() != 0)
+          return false;
+
+      // announce the pin first, so freePage can tell it from a caller's pin
+      cleaningFrame = frameno;
+      int pins = frame.tryPin();
+      if (pins == FrameDesc.CLAIMED) {
+          cleaningFrame = -1;
+          return false;
+      }
+      if (pins == 1)
+          numPinned.incrementAndGet();
+
+      boolean written = false;
+      try {
+          int pid = frame.getDiskPgNum();
+          // clear first so a concurrent dirty unpin is not lost
+          if (pins == 1 && pid != INVALID_PAGEID && frame.markClean()) {
+              numDirty.decrementAndGet();
+              Minibase.DiskManager.write_page(new PageId(pid), frame.getaPage());
+              numCleanerWrites.increment();
+              written = true;
+          }
+      }
+      finally {
+          dropPin(frame);
+          cleaningFrame = -1;
+      }
+      return written;
+  }
+
+  /**
+   * Gets the frame the replacement policy will look at next, or -1.
+   */
+  int nextCandidate() {
+
+      return replPolicy.nextCandidate();
+  }
+
+  /**
+   * Gets the number of frames of this pool alone; for the default pool,
+   * the frames of this one shard.
+   */
+  int getOwnFrames() {
+
+      return numframes;
+  }
+
+  /**
+   * Gets the number of dirty frames of this pool alone; for the default
+   * pool, the dirty frames of this one shard.
+   */
+  int getOwnDirty() {
+
+      return numDirty.get();
+  }
+
+  /**
+   * Waits while the page cleaner holds its pin on the frame.
+   *
+   * @return false at once if the cleaner is not on this frame
+   */
+  private boolean awaitCleaner(FrameDesc frame) {
+
+      if (cleaningFrame != frame.index)
+          return false;
+      while (cleaningFrame == frame.index)
+          Thread.yield();
+      return true;
+  }
+
+  /**
+   * Adds up a counter over the shards of the default pool; the counters of
+   * other named pools are their own.
+   */
+  private long sum(ToLongFunction<BufMgr> counter) {
+
+      long total = 0;
+      for (BufMgr shard : shards)
+          total += counter.applyAsLong(shard);
+      return total;
+  }
+
+   /**
+   * Gets the total number of buffer frames.
+   */
+  public int getNumFrames() {
+
+    return (int) sum(pool -> pool.numframes);
+  }
+
+  /**
+   * Gets the total number of unpinned buffer frames.
+   */
+  public int getNumUnpinned() {
+
+      return getNumFrames() - getNumPinned();
+  }
+
+  /**
+   * Gets the number of frames holding at least one pin.
+   */
+  public int getNumPinned() {
+
+      return (int) sum(pool -> pool.numPinned.get());
+  }
+
+  /**
+   * Gets the number of frames holding a disk page.
+   */
+  public int getNumResident() {
+
+      return (int) sum(pool -> pool.numResident.get());
+  }
+
+  /**
+   * Gets the number of frames whose page has not been written back.
+   */
+  public int getNumDirty() {
+
+      return (int) sum(pool -> pool.numDirty.get());
+  }
+
+  /**
+   * Gets the statistics of this pool, as a JMX MXBean.
+   */
+  public BufMgrStats getStats() {
+
+      return stats;
+  }
+
+  /**
+   * Gets the latencies of pins that found the page resident without
+   * waiting for the miss latch, in nanoseconds.
+   */
+  public LatencyHistogram getPinHitLatency() {
+
+      return pinHitLatency;
+  }
+
+  /**
+   * Gets the latencies of pins that waited for the miss latch, in
+   * nanoseconds: those that read the page in, and those that found it
+   * brought in by another thread meanwhile.
+   */
+  public LatencyHistogram getPinMissLatency() {
+
+      return pinMissLatency;
+  }
+
+  /**
+   * Gets the latencies of flushPage calls, in nanoseconds.
+   */
+  public LatencyHistogram getFlushLatency() {
+
+      return flushLatency;
+  }
+
+  /**
+   * Gets the number of pins that found the page resident.
+   */
+  public long getNumHits() {
+
+      return sum(pool -> pool.numHits.sum());
+  }
+
+  /**
+   * Gets the number of pins that had to bring the page in.
+   */
+  public long getNumMisses() {
+
+      return sum(pool -> pool.numMisses.sum());
+  }
+
+  /**
+   * Gets the number of pins released.
+   */
+  public long getNumUnpins() {
+
+      return sum(pool -> pool.numUnpins.sum());
+  }
+
+  /**
+   * Gets the number of pages freed.
+   */
+  public long getNumFrees() {
+
+      return sum(pool -> pool.numFrees.sum());
+  }
+
+  /**
+   * Gets the number of frames the replacement policy has looked at while
+   * picking victims, 0 if it does not count them.
+   */
+  public long getSweepSteps() {
+
+      return sum(pool -> pool.replPolicy.getSweepSteps());
+  }
+
+  /**
+   * Gets the number of pages evicted to make room for others.
+   */
+  public long getNumEvictions() {
+
+      return sum(pool -> pool.numEvictions.sum());
+  }
+
+  /**
+   * Gets the number of evictions that had to write the victim first.
+   */
+  public long getNumDirtyEvictions() {
+
+      return sum(pool -> pool.numDirtyEvictions.sum());
+  }
+
+  /**
+   * Gets the number of pages written by the background page cleaner.
+   */
+  public long getNumCleanerWrites() {
+
+      return sum(pool -> pool.numCleanerWrites.sum());
+  }
+
+  /**
+   * Gets the number of misses that reused a frame of a BufferRing.
+   */
+  public long getNumRingReuses() {
+
+      return sum(pool -> pool.numRingReuses.sum());
+  }
+
+  /**
+   * Gets the number of pages written by flushAllFrames and flushPages.
+   */
+  public long getNumFlushWrites() {
+
+      return sum(pool -> pool.numFlushWrites.sum());
+  }
+
+  /**
+   * Gets the number of disk writes flushAllFrames and flushPages issued;
+   * each writes one run of consecutive pages.
+   */
+  public long getNumFlushRuns() {
+
+      return sum(pool -> pool.numFlushRuns.sum());
+  }
+
+  /**
+   * Gets the total time spent in flushAllFrames and flushPages, in
+   * nanoseconds.
+   */
+  public long getFlushNanos() {
+
+      return sum(pool -> pool.flushNanos.sum());
+  }
+
+  /**
+   * Gets the number of pages read into the pool ahead of any pin.
+   */
+  public long getNumPrefetches() {
+
+      return sum(pool -> pool.numPrefetches.sum());
+  }
+
+  /**
+   * Gets the number of prefetched pages that were pinned before eviction.
+   */
+  public long getNumPrefetchHits() {
+
+      return sum(pool -> pool.numPrefetchHits.sum());
+  }
+
+  /**
+   * Gets the number of prefetched pages evicted without ever being pinned.
+   */
+  public long getNumPrefetchWasted() {
+
+      return sum(pool -> pool.numPrefetchWasted.sum());
   }
 
 } // public class BufMgr implements GlobalConst
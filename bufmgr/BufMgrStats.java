@@ -0,0 +1,153 @@
+package bufmgr;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Statistics of a buffer pool, for JMX.  The counters behind them are
+ * LongAdders kept by the buffer manager, which threads bump without
+ * contending with each other, so they stay on at all times; reading them
+ * adds up their cells, which is cheap at monitoring rates.  The statistics
+ * of the default pool cover all its shards.
+ * <p>
+ * Get a pool's statistics from BufMgr.getStats, and register them to make
+ * them visible to JMX clients as bufmgr:type=BufMgrStats,pool=name.
+ */
+public class BufMgrStats implements BufMgrStatsMXBean {
+
+    private final BufMgr bufmgr;
+
+    BufMgrStats(BufMgr bufmgr) {
+
+        this.bufmgr = bufmgr;
+    }
+
+    /**
+     * Registers the statistics with the platform MBean server, replacing
+     * those of an earlier pool of the same name.
+     *
+     * @throws IllegalStateException if the server refuses them
+     */
+    public void register() {
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = objectName();
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(this, name);
+        } catch (JMException exc) {
+            throw new IllegalStateException("Cannot register statistics; register aborted", exc);
+        }
+    }
+
+    /**
+     * Removes the statistics from the platform MBean server, if they are
+     * registered there.
+     */
+    public void unregister() {
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = objectName();
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        } catch (JMException exc) {
+            throw new IllegalStateException("Cannot unregister statistics; unregister aborted", exc);
+        }
+    }
+
+    private ObjectName objectName() throws JMException {
+
+        return new ObjectName("bufmgr:type=BufMgrStats,pool="
+                + ObjectName.quote(bufmgr.getName()));
+    }
+
+    public long getHits() {
+
+        return bufmgr.getNumHits();
+    }
+
+    public long getMisses() {
+
+        return bufmgr.getNumMisses();
+    }
+
+    public double getHitRatio() {
+
+        long hits = getHits();
+        return ratio(hits, hits + getMisses());
+    }
+
+    public long getPins() {
+
+        return getHits() + getMisses();
+    }
+
+    public long getUnpins() {
+
+        return bufmgr.getNumUnpins();
+    }
+
+    public long getEvictions() {
+
+        return bufmgr.getNumEvictions();
+    }
+
+    public long getDirtyEvictions() {
+
+        return bufmgr.getNumDirtyEvictions();
+    }
+
+    public double getDirtyEvictionRatio() {
+
+        return ratio(getDirtyEvictions(), getEvictions());
+    }
+
+    public long getFrees() {
+
+        return bufmgr.getNumFrees();
+    }
+
+    public long getPrefetches() {
+
+        return bufmgr.getNumPrefetches();
+    }
+
+    public long getPrefetchHits() {
+
+        return bufmgr.getNumPrefetchHits();
+    }
+
+    public int getFrames() {
+
+        return bufmgr.getNumFrames();
+    }
+
+    public int getPinnedFrames() {
+
+        return bufmgr.getNumPinned();
+    }
+
+    public int getDirtyFrames() {
+
+        return bufmgr.getNumDirty();
+    }
+
+    public int getResidentFrames() {
+
+        return bufmgr.getNumResident();
+    }
+
+    public double getSweepDistance() {
+
+        return ratio(bufmgr.getSweepSteps(), getEvictions());
+    }
+
+    private static double ratio(long part, long whole) {
+
+        return whole == 0 ? 0 : (double) part / whole;
+    }
+}
@@ -0,0 +1,57 @@
+package bufmgr;
+
+/**
+ * Management interface of BufMgrStats.  Counters run from the creation of
+ * the pool; monitoring tools derive rates from successive readings.
+ */
+public interface BufMgrStatsMXBean {
+
+    /** Pins that found the page resident. */
+    public long getHits();
+
+    /** Pins that had to bring the page in. */
+    public long getMisses();
+
+    /** Hits as a fraction of all pins, 0 before the first pin. */
+    public double getHitRatio();
+
+    /** Pins taken: hits and misses. */
+    public long getPins();
+
+    /** Pins released. */
+    public long getUnpins();
+
+    /** Pages evicted to make room for others. */
+    public long getEvictions();
+
+    /** Evictions that had to write the victim first. */
+    public long getDirtyEvictions();
+
+    /** Dirty evictions as a fraction of all evictions. */
+    public double getDirtyEvictionRatio();
+
+    /** Pages freed. */
+    public long getFrees();
+
+    /** Pages read ahead of demand. */
+    public long getPrefetches();
+
+    /** Prefetched pages that were pinned before eviction. */
+    public long getPrefetchHits();
+
+    /** Frames in the pool. */
+    public int getFrames();
+
+    /** Frames holding at least one pin. */
+    public int getPinnedFrames();
+
+    /** Frames whose page has not been written back. */
+    public int getDirtyFrames();
+
+    /** Frames holding a disk page. */
+    public int getResidentFrames();
+
+    /** Frames the policy looked at per eviction, on average, 0 if it does not count. */
+    public double getSweepDistance();
+
+}
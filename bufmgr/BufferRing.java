@@ -0,0 +1,53 @@
+package bufmgr;
+
+/**
+ * A small private ring of frames for a bulk operation, such as a long scan,
+ * an export or the initialization of a big run, so that it does not push
+ * the pool's working set out.  A miss on a pin made through the ring reuses
+ * the frame the ring filled size misses ago, if that frame still holds the
+ * page the ring put there and nobody has it pinned; otherwise it takes a
+ * victim from the replacement policy as usual, and the ring adopts that
+ * frame instead.  Hits are not affected, and pins through a ring do not
+ * drive read-ahead.
+ * <p>
+ * A ring is meant for one thread at a time.  Get one from BufMgr.newRing,
+ * pin through the pinPage and pinFrame overloads that take it, and close
+ * it when done, which makes its frames the pool's next victims.
+ */
+public class BufferRing {
+
+    // per slot: the pool and frame the ring filled, and the page it put there
+    final BufMgr [] pools;
+    final int [] frames;
+    final int [] pids;
+
+    // the slot the next miss reuses
+    int next;
+
+    BufferRing(int size) {
+
+        pools = new BufMgr[size];
+        frames = new int[size];
+        pids = new int[size];
+    }
+
+    /** Gets the number of frames in the ring. */
+    public int size() {
+
+        return frames.length;
+    }
+
+    /**
+     * Hands the ring's frames back to their pools as the next victims, and
+     * empties the ring.  The pages stay resident until they are replaced.
+     */
+    public void close() {
+
+        for (int i = 0; i < frames.length; ++i) {
+            if (pools[i] != null)
+                pools[i].demoteFrame(frames[i], pids[i]);
+            pools[i] = null;
+        }
+        next = 0;
+    }
+}
@@ -1,35 +1,60 @@
 package bufmgr;
 
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * Created by brandonbauley on 1/24/18.
  */
-public class Clock {
+public class Clock implements ReplacementPolicy {
 
     //Keeps track of the current frame the clock algorithm is on
     private int current;
 
+    private FrameDesc [] bufferPool;
+
+    // number of frames in use, from the start of bufferPool
+    private int size;
+
+    // frames the hand has passed over
+    private final LongAdder sweepSteps = new LongAdder();
+
     public Clock() {
 
         current = 0;
     }
 
+    public void init(FrameDesc [] frametab) {
+
+        bufferPool = frametab;
+        size = frametab.length;
+    }
+
+    public void resize(FrameDesc [] frametab, int numframes) {
+
+        bufferPool = frametab;
+        size = numframes;
+        current = current % numframes;
+    }
+
     /** Returns an index for which frame needs to be replaced in the buffer pool
      *  Failure if returned value is -1
      */
-    public int pickVictim(FrameDesc [] bufferPool) {
+    public int pickVictim() {
 
-        int size = bufferPool.length;
-        for(int counter = 0; counter <  size * 2; ++counter) {
+        int counter = 0;
+        for(; counter <  size * 2; ++counter) {
 
 
             if(bufferPool[current].getValid() == false) {
                 int value = current;
                 current = (current + 1) % size;
+                sweepSteps.add(counter + 1);
                 return value;
             }
             if(bufferPool[current].getDiskPgNum() == -1) {
                 int value = current;
                 current = (current + 1) % size;
+                sweepSteps.add(counter + 1);
                 return value;
             }
             if(bufferPool[current].getPinCount() == 0) {
@@ -39,6 +64,7 @@ public class Clock {
                 else {
                     int value = current;
                     current = (current + 1) % size;
+                    sweepSteps.add(counter + 1);
                     return value;
                 }
 
@@ -47,6 +73,50 @@ public class Clock {
             current = (current + 1) % size;
         }
 
+        sweepSteps.add(counter);
         return -1;
     }
+
+    public void pinned(int frameno) {
+
+        bufferPool[frameno].setRefbit(true);
+    }
+
+    /** Gives a recently used frame its second chance */
+    public void hit(int frameno) {
+
+        bufferPool[frameno].setRefbit(true);
+    }
+
+    public void unpinned(int frameno) {
+    }
+
+    public void evicted(int frameno) {
+    }
+
+    public void freed(int frameno) {
+    }
+
+    /** Takes away the frame's second chance */
+    public void demote(int frameno) {
+
+        bufferPool[frameno].setRefbit(false);
+    }
+
+    /** Lets the page cleaner work just ahead of the hand */
+    public int nextCandidate() {
+
+        return current;
+    }
+
+    public long getSweepSteps() {
+
+        return sweepSteps.sum();
+    }
+
+    /** A page with its second chance is hotter than one without */
+    public long hotness(int frameno) {
+
+        return bufferPool[frameno].getRefbit() ? 1 : 0;
+    }
 }
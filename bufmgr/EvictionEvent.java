@@ -0,0 +1,34 @@
+package bufmgr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for the eviction of a page to make room for
+ * another, with the time it took, including any write of the victim.  Off
+ * unless a recording enables minibase.Eviction.
+ */
+@Name("minibase.Eviction")
+@Label("Eviction")
+@Category({ "Minibase", "Buffer Manager" })
+@Description("A page evicted to make room for another")
+@Enabled(false)
+final class EvictionEvent extends Event {
+
+    @Label("Victim Page Id")
+    int pageId;
+
+    @Label("Frame")
+    int frame;
+
+    @Label("Dirty")
+    @Description("Whether the victim had to be written first")
+    boolean dirty;
+
+    @Label("Pool")
+    String pool;
+}
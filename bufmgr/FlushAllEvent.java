@@ -0,0 +1,21 @@
+package bufmgr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for a flushAllFrames call, with the time it took.
+ * Off unless a recording enables minibase.FlushAll.
+ */
+@Name("minibase.FlushAll")
+@Label("Flush All Frames")
+@Category({ "Minibase", "Buffer Manager" })
+@Enabled(false)
+final class FlushAllEvent extends Event {
+
+    @Label("Pages Written")
+    int pages;
+}
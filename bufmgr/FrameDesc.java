@@ -1,52 +1,100 @@
 package bufmgr;
 
 
+import global.GlobalConst;
 import global.Page;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 
 /**
  * Created by brandonbauley on 1/23/18.
+ *
+ * The pin count doubles as the frame's ownership state: a non-negative value
+ * is the number of pins, and CLAIMED means a single thread holds the frame
+ * exclusively while it evicts, loads or frees it.  Hits only ever move the
+ * count between non-negative values, so they never need the buffer
+ * manager's miss latch.
  */
 public class FrameDesc{
 
-    private boolean dirty; // is the page dirty
-    private boolean valid; // does it include valid data
-    private int diskPageNumber; // if the data is valid, there is should be a number
-    private int pinCount;
-    Page aPage;
+    /** Pin count of a frame that is being evicted, loaded or freed. */
+    static final int CLAIMED = -1;
+
+    /** Latch state of a frame latched for writing. */
+    static final int EXCLUSIVE = -1;
+
+    // the buffer all retired frames share, so a shrinking pool can give its
+    // memory back while the frames themselves stay in the table
+    private static final byte [] RETIRED = new byte[GlobalConst.PAGE_SIZE];
+
+    private final AtomicBoolean dirty; // is the page dirty
+    private volatile boolean valid; // does it include valid data
+    private volatile int diskPageNumber; // if the data is valid, there is should be a number
+    private final AtomicInteger pinCount;
+    final Page aPage;
+
+    // page latch: the number of shared holders, or EXCLUSIVE
+    private final AtomicInteger latch = new AtomicInteger();
+
+    // seqlock-style version: odd while the frame is claimed or its contents
+    // are being replaced, and moved on by every change an optimistic reader
+    // must notice
+    private final AtomicInteger version = new AtomicInteger(2);
+
+    // position in the buffer manager's frame table, -1 if not in one
+    final int index;
 
 
     // variable for the clock algorithm to give the frame a "second chance"
-    boolean refbit;
+    volatile boolean refbit;
+
+    // read ahead of demand and not pinned since
+    volatile boolean prefetched;
+
+    // the read-ahead stream a prefetched page was read for, if any
+    volatile ReadAhead.Progress prefetchedFor;
+
+    // advised as not needed while pinned: demote at the last unpin
+    volatile boolean dontNeed;
 
 
     /** Default constructor */
     public FrameDesc(){
 
+        this(-1);
+    }
+
+    /** Constructs the frame at the given position of a frame table */
+    public FrameDesc(int index){
+
+        this.index = index;
         aPage = new Page();
-        dirty = false;
+        dirty = new AtomicBoolean(false);
         valid = true;
         diskPageNumber = -1;
-        pinCount = 0;
+        pinCount = new AtomicInteger(0);
         refbit = true;
     }
 
     public FrameDesc(Page aPage) {
 
+        this.index = -1;
         this.aPage = new Page();
         this.aPage.copyPage(aPage);
-        dirty = false;
+        dirty = new AtomicBoolean(false);
         valid = true;
         diskPageNumber = -1;
-        pinCount = 0;// might have to change this later
+        pinCount = new AtomicInteger(0);// might have to change this later
         refbit = true;
 
 
     }
 
     public void copyPage(Page to_copy){
-        
-        this.aPage.setData(to_copy.getData());
+
+        this.aPage.copyPage(to_copy);
         return;
     }
     /** Gives back the boolean value of if the frame contains data */
@@ -58,17 +106,160 @@ public class FrameDesc{
     /** Gives back the pincount of the frame */
     public int getPinCount() {
 
-        return pinCount;
+        return pinCount.get();
     }
 
     public void incPinCount() {
 
-        ++pinCount;
+        pinCount.incrementAndGet();
     }
 
     public void decPinCount() {
 
-        --pinCount;
+        pinCount.decrementAndGet();
+    }
+
+    /**
+     * Adds a pin unless the frame is claimed.
+     * Returns the new pin count, or CLAIMED if no pin was taken.
+     */
+    int tryPin() {
+
+        for (;;) {
+            int pins = pinCount.get();
+            if (pins == CLAIMED)
+                return CLAIMED;
+            if (pinCount.compareAndSet(pins, pins + 1))
+                return pins + 1;
+        }
+    }
+
+    /**
+     * Removes a pin.
+     * Returns the new pin count, or -1 if the frame was not pinned.
+     */
+    int tryUnpin() {
+
+        for (;;) {
+            int pins = pinCount.get();
+            if (pins <= 0)
+                return -1;
+            if (pinCount.compareAndSet(pins, pins - 1))
+                return pins - 1;
+        }
+    }
+
+    /** Takes exclusive ownership of an unpinned frame. */
+    boolean tryClaim() {
+
+        if (!pinCount.compareAndSet(0, CLAIMED))
+            return false;
+        version.incrementAndGet();
+        return true;
+    }
+
+    /** Ends a claim, leaving the frame with the given number of pins. */
+    void release(int pins) {
+
+        version.incrementAndGet();
+        pinCount.set(pins);
+    }
+
+    /** Gets the version; odd while the frame is changing. */
+    int getVersion() {
+
+        return version.get();
+    }
+
+    /** Marks the start of an in-place change by the frame's only pinner. */
+    void beginChange() {
+
+        version.incrementAndGet();
+    }
+
+    /** Marks the end of a change begun by beginChange. */
+    void endChange() {
+
+        version.incrementAndGet();
+    }
+
+    /**
+     * Takes the latch in shared mode unless it is held exclusively.
+     */
+    boolean tryLatchShared() {
+
+        for (;;) {
+            int holders = latch.get();
+            if (holders == EXCLUSIVE)
+                return false;
+            if (latch.compareAndSet(holders, holders + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Takes the latch in exclusive mode if nobody holds it.  Optimistic
+     * readers see the frame as changing until the latch is released.
+     */
+    boolean tryLatchExclusive() {
+
+        if (!latch.compareAndSet(0, EXCLUSIVE))
+            return false;
+        beginChange();
+        return true;
+    }
+
+    /**
+     * Turns the caller's shared latch into an exclusive one if it is the
+     * only holder.
+     */
+    boolean tryUpgrade() {
+
+        if (!latch.compareAndSet(1, EXCLUSIVE))
+            return false;
+        beginChange();
+        return true;
+    }
+
+    /**
+     * Turns the caller's exclusive latch into a shared one.
+     */
+    void downgrade() {
+
+        endChange();
+        latch.set(1);
+    }
+
+    /**
+     * Releases the caller's latch, whichever mode it is in.
+     * Returns false if the latch was not held.
+     */
+    boolean unlatch() {
+
+        for (;;) {
+            int holders = latch.get();
+            if (holders == 0)
+                return false;
+            if (holders == EXCLUSIVE) {
+                endChange();
+                latch.set(0);
+                return true;
+            }
+            if (latch.compareAndSet(holders, holders - 1))
+                return true;
+        }
+    }
+
+    /** Gets the latch state: shared holders, or EXCLUSIVE. */
+    int getLatch() {
+
+        return latch.get();
+    }
+
+    /** Records that a pinner changed the contents, keeping the version even. */
+    void changed() {
+
+        version.addAndGet(2);
     }
 
     public boolean getRefbit() {
@@ -84,7 +275,19 @@ public class FrameDesc{
 
     public boolean getDirty() {
 
-        return dirty;
+        return dirty.get();
+    }
+
+    /** Sets the dirty bit; true if it was clear before. */
+    boolean markDirty() {
+
+        return !dirty.get() && dirty.compareAndSet(false, true);
+    }
+
+    /** Clears the dirty bit; true if it was set before. */
+    boolean markClean() {
+
+        return dirty.get() && dirty.compareAndSet(true, false);
     }
 
     public void setDiskPageNumber(int diskPageNumber) {
@@ -95,7 +298,7 @@ public class FrameDesc{
 
     public void setDirty(boolean dirty) {
 
-        this.dirty = dirty;
+        this.dirty.set(dirty);
         return;
     }
 
@@ -115,21 +318,60 @@ public class FrameDesc{
     public void setValid(boolean valid) {
         this.valid = valid;
     }
-    
+
+    /**
+     * Empties a claimed frame and hands it back unpinned.  The frame keeps
+     * its buffer, which is reused for every page it holds for as long as
+     * the frame is in use; whatever the buffer held stays until the next
+     * load overwrites it.  Only retire and revive swap the buffer, so code
+     * must take it from aPage after a pin or claim rather than keep it.
+     */
     public void resetFrame() {
 
-        aPage = null;
-        aPage = new Page();
-        dirty = false;
+        dirty.set(false);
         valid = true;
         diskPageNumber = -1;
-        pinCount = -1;
         refbit = true;
+        prefetched = false;
+        dontNeed = false;
+        release(0);
         return;
     }
 
+    /**
+     * Gives up the buffer of a claimed, empty frame that the pool no longer
+     * uses, and hands the frame back unpinned.  A Page that an optimistic
+     * read pointed at the old buffer may still read it, but its stamp no
+     * longer validates, since the claim moved the version on.
+     *
+     * @return the buffer given up, for the pool to reuse or let go
+     */
+    byte [] retire() {
+
+        byte [] data = aPage.getData();
+        aPage.setData(RETIRED);
+        resetFrame();
+        return data;
+    }
+
+    /** True if the frame was retired and has no buffer of its own. */
+    boolean isRetired() {
+
+        return aPage.getData() == RETIRED;
+    }
+
+    /**
+     * Gives a claimed, retired frame a buffer of its own again.
+     *
+     * @param data a buffer of PAGE_SIZE bytes that no other frame uses
+     */
+    void revive(byte [] data) {
+
+        aPage.setData(data);
+    }
+
     public void setPinCount(int pinCount) {
-        this.pinCount = pinCount;
+        this.pinCount.set(pinCount);
     }
 
     public int getDiskPgNum() {
@@ -0,0 +1,144 @@
+package bufmgr;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generalized clock replacement.  Instead of a single reference bit, each
+ * frame has a usage count that a hit raises (up to a ceiling) and the
+ * sweeping hand lowers; the hand takes the first unpinned frame whose count
+ * has reached zero.  Frequently used pages therefore survive several
+ * sweeps, not just one.
+ */
+public class GClock implements ReplacementPolicy {
+
+    /** Usage count ceiling used by the no-argument constructor. */
+    public static final int DEFAULT_MAX_COUNT = 5;
+
+    private final int maxCount;
+
+    //Keeps track of the current frame the clock algorithm is on
+    private int current;
+
+    private FrameDesc [] bufferPool;
+
+    private AtomicIntegerArray usage;
+
+    // number of frames in use, from the start of bufferPool
+    private int size;
+
+    // frames the hand has passed over
+    private final LongAdder sweepSteps = new LongAdder();
+
+    public GClock() {
+
+        this(DEFAULT_MAX_COUNT);
+    }
+
+    /**
+     * @throws IllegalArgumentException if maxCount is less than 1
+     */
+    public GClock(int maxCount) {
+
+        if (maxCount < 1)
+            throw new IllegalArgumentException("Usage count ceiling must be at least 1");
+        this.maxCount = maxCount;
+    }
+
+    public void init(FrameDesc [] frametab) {
+
+        bufferPool = frametab;
+        usage = new AtomicIntegerArray(frametab.length);
+        size = frametab.length;
+    }
+
+    public void resize(FrameDesc [] frametab, int numframes) {
+
+        // counts never shrink, so late hits on retired frames stay in bounds
+        if (frametab.length > usage.length()) {
+            AtomicIntegerArray grown = new AtomicIntegerArray(frametab.length);
+            for (int i = 0; i < usage.length(); ++i)
+                grown.set(i, usage.get(i));
+            usage = grown;
+        }
+        bufferPool = frametab;
+        size = numframes;
+        current = current % numframes;
+    }
+
+    /** Returns an index for which frame needs to be replaced in the buffer pool
+     *  Failure if returned value is -1
+     */
+    public int pickVictim() {
+
+        int counter = 0;
+        for (; counter < size * (maxCount + 1); ++counter) {
+
+            int value = current;
+            current = (current + 1) % size;
+
+            if (bufferPool[value].getDiskPgNum() == -1) {
+                sweepSteps.add(counter + 1);
+                return value;
+            }
+            if (bufferPool[value].getPinCount() == 0) {
+                if (usage.get(value) == 0) {
+                    sweepSteps.add(counter + 1);
+                    return value;
+                }
+                usage.decrementAndGet(value);
+            }
+        }
+        sweepSteps.add(counter);
+        return -1;
+    }
+
+    public void pinned(int frameno) {
+
+        usage.set(frameno, 1);
+    }
+
+    public void hit(int frameno) {
+
+        for (;;) {
+            int count = usage.get(frameno);
+            if (count >= maxCount || usage.compareAndSet(frameno, count, count + 1))
+                return;
+        }
+    }
+
+    public void unpinned(int frameno) {
+    }
+
+    public void evicted(int frameno) {
+
+        usage.set(frameno, 0);
+    }
+
+    public void freed(int frameno) {
+
+        usage.set(frameno, 0);
+    }
+
+    public void demote(int frameno) {
+
+        usage.set(frameno, 0);
+    }
+
+    /** Lets the page cleaner work just ahead of the hand */
+    public int nextCandidate() {
+
+        return current;
+    }
+
+    public long getSweepSteps() {
+
+        return sweepSteps.sum();
+    }
+
+    /** Ranks frames by their usage count */
+    public long hotness(int frameno) {
+
+        return usage.get(frameno);
+    }
+}
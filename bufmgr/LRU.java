@@ -0,0 +1,165 @@
+package bufmgr;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Least recently used replacement.  Frames nobody has pinned sit on an
+ * intrusive doubly linked list in the order they were last unpinned, and
+ * the victim is the first one on it, so a miss does not scan the frame
+ * table.  A hit takes its frame off the list, and the unpin that follows
+ * puts it back at the end.
+ * <p>
+ * The list is guarded by this object's monitor.  Pins the buffer manager
+ * takes for its own work, such as writing a page back, leave the frame on
+ * the list, so pickVictim steps over pinned frames instead of trusting it.
+ */
+public class LRU implements ReplacementPolicy {
+
+    private static final int NONE = -1;
+
+    private FrameDesc [] bufferPool;
+
+    // links of the list, NONE at its ends; both NONE and not head if unlinked
+    private int [] prev;
+    private int [] next;
+
+    private int head = NONE;
+    private int tail = NONE;
+
+    // logical time each frame was last put at the end of the list, 0 if demoted
+    private long [] lastUse;
+
+    private long clock;
+
+    // number of frames in use, from the start of bufferPool
+    private int size;
+
+    // list entries pickVictim has looked at
+    private final LongAdder sweepSteps = new LongAdder();
+
+    public synchronized void init(FrameDesc [] frametab) {
+
+        bufferPool = frametab;
+        prev = new int[frametab.length];
+        next = new int[frametab.length];
+        Arrays.fill(prev, NONE);
+        Arrays.fill(next, NONE);
+        lastUse = new long[frametab.length];
+        size = frametab.length;
+    }
+
+    public synchronized void resize(FrameDesc [] frametab, int numframes) {
+
+        // the arrays never shrink, so late hits on retired frames stay in bounds
+        if (frametab.length > prev.length) {
+            int old = prev.length;
+            prev = Arrays.copyOf(prev, frametab.length);
+            next = Arrays.copyOf(next, frametab.length);
+            Arrays.fill(prev, old, frametab.length, NONE);
+            Arrays.fill(next, old, frametab.length, NONE);
+            lastUse = Arrays.copyOf(lastUse, frametab.length);
+        }
+        bufferPool = frametab;
+        size = numframes;
+    }
+
+    /** Returns the least recently used unpinned frame, or -1 if there is
+     *  none
+     */
+    public synchronized int pickVictim() {
+
+        int steps = 0;
+        for (int i = head; i != NONE; i = next[i]) {
+            ++steps;
+            if (i < size && bufferPool[i].getPinCount() == 0) {
+                sweepSteps.add(steps);
+                return i;
+            }
+        }
+        sweepSteps.add(steps);
+        return -1;
+    }
+
+    public synchronized void pinned(int frameno) {
+
+        unlink(frameno);
+    }
+
+    public synchronized void hit(int frameno) {
+
+        unlink(frameno);
+    }
+
+    public synchronized void unpinned(int frameno) {
+
+        // another holder may still have it pinned; pickVictim steps over it
+        if (frameno >= size)
+            return;
+        unlink(frameno);
+        append(frameno);
+    }
+
+    public void evicted(int frameno) {
+    }
+
+    public synchronized void freed(int frameno) {
+
+        unlink(frameno);
+        lastUse[frameno] = 0;
+    }
+
+    /** Makes the frame the least recently used */
+    public synchronized void demote(int frameno) {
+
+        if (frameno >= size)
+            return;
+        unlink(frameno);
+        next[frameno] = head;
+        if (head != NONE)
+            prev[head] = frameno;
+        else
+            tail = frameno;
+        head = frameno;
+        lastUse[frameno] = 0;
+    }
+
+    /** Ranks frames by their last use */
+    public long hotness(int frameno) {
+
+        return lastUse[frameno];
+    }
+
+    /** Counts the list entries pickVictim has looked at */
+    public long getSweepSteps() {
+
+        return sweepSteps.sum();
+    }
+
+    private void append(int frameno) {
+
+        prev[frameno] = tail;
+        if (tail != NONE)
+            next[tail] = frameno;
+        else
+            head = frameno;
+        tail = frameno;
+        lastUse[frameno] = ++clock;
+    }
+
+    private void unlink(int frameno) {
+
+        if (prev[frameno] == NONE && head != frameno)
+            return;
+        if (prev[frameno] != NONE)
+            next[prev[frameno]] = next[frameno];
+        else
+            head = next[frameno];
+        if (next[frameno] != NONE)
+            prev[next[frameno]] = prev[frameno];
+        else
+            tail = prev[frameno];
+        prev[frameno] = NONE;
+        next[frameno] = NONE;
+    }
+}
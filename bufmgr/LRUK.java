@@ -0,0 +1,249 @@
+package bufmgr;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum).  Each frame remembers the
+ * logical times of its page's last K references, and the victim is the
+ * unpinned frame whose K-th most recent reference is oldest.  Pages with
+ * fewer than K references count as infinitely old and among themselves are
+ * replaced in LRU order, so a page touched once by a scan goes before a page
+ * that has been used repeatedly.
+ * <p>
+ * Frames nobody has pinned sit on a binary min-heap keyed on their K-th and
+ * last reference times, so a miss does not scan the frame table.  A hit
+ * takes its frame off the heap, and the unpin that follows puts it back
+ * with its new key.  Pins the buffer manager takes for its own work leave
+ * the frame on the heap, so pickVictim sets pinned frames aside instead of
+ * trusting it.
+ * <p>
+ * History is kept per frame and dropped when the page leaves the pool.
+ * History and heap are guarded by this object's monitor.
+ */
+public class LRUK implements ReplacementPolicy {
+
+    /** K used by the no-argument constructor. */
+    public static final int DEFAULT_K = 2;
+
+    private static final int NONE = -1;
+
+    private final int k;
+
+    private FrameDesc [] bufferPool;
+
+    // history[frameno * k + i] is the time of the (i+1)-th most recent reference, 0 if none
+    private long [] history;
+
+    // heap of frame numbers, and each frame's place in it, NONE if not on it
+    private int [] heap;
+    private int [] place;
+    private int heapSize;
+
+    // frames pickVictim has set aside while looking for an unpinned one
+    private int [] pinnedTops;
+
+    // number of frames in use, from the start of bufferPool
+    private int size;
+
+    private long clock;
+
+    // heap entries pickVictim has looked at
+    private final LongAdder sweepSteps = new LongAdder();
+
+    public LRUK() {
+
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @throws IllegalArgumentException if k is less than 1
+     */
+    public LRUK(int k) {
+
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        this.k = k;
+    }
+
+    public synchronized void init(FrameDesc [] frametab) {
+
+        bufferPool = frametab;
+        history = new long[frametab.length * k];
+        heap = new int[frametab.length];
+        place = new int[frametab.length];
+        Arrays.fill(place, NONE);
+        pinnedTops = new int[frametab.length];
+        size = frametab.length;
+    }
+
+    public synchronized void resize(FrameDesc [] frametab, int numframes) {
+
+        // the arrays never shrink, so late hits on retired frames stay in bounds
+        if (frametab.length > place.length) {
+            int old = place.length;
+            history = Arrays.copyOf(history, frametab.length * k);
+            heap = Arrays.copyOf(heap, frametab.length);
+            place = Arrays.copyOf(place, frametab.length);
+            Arrays.fill(place, old, frametab.length, NONE);
+            pinnedTops = new int[frametab.length];
+        }
+        bufferPool = frametab;
+        size = numframes;
+    }
+
+    /** Returns the unpinned frame with the largest backward K-distance, or
+     *  -1 if there is none
+     */
+    public synchronized int pickVictim() {
+
+        int victim = -1;
+        int numPinned = 0;
+        while (heapSize > 0) {
+            int top = heap[0];
+            if (top < size && bufferPool[top].getPinCount() == 0) {
+                victim = top;
+                break;
+            }
+            remove(top);
+            pinnedTops[numPinned++] = top;
+        }
+        for (int i = 0; i < numPinned; ++i)
+            insert(pinnedTops[i]);
+        sweepSteps.add(victim == -1 ? numPinned : numPinned + 1);
+        return victim;
+    }
+
+    public synchronized void pinned(int frameno) {
+
+        remove(frameno);
+        clear(frameno);
+        reference(frameno);
+    }
+
+    public synchronized void hit(int frameno) {
+
+        remove(frameno);
+        reference(frameno);
+    }
+
+    public synchronized void unpinned(int frameno) {
+
+        // another holder may still have it pinned; pickVictim sets it aside
+        if (frameno >= size)
+            return;
+        remove(frameno);
+        insert(frameno);
+    }
+
+    public synchronized void evicted(int frameno) {
+
+        remove(frameno);
+        clear(frameno);
+    }
+
+    public synchronized void freed(int frameno) {
+
+        remove(frameno);
+        clear(frameno);
+    }
+
+    /** Forgets the frame's history, so it goes before any page with one */
+    public synchronized void demote(int frameno) {
+
+        if (frameno >= size)
+            return;
+        remove(frameno);
+        clear(frameno);
+        insert(frameno);
+    }
+
+    /** Ranks frames by their K-th most recent reference */
+    public long hotness(int frameno) {
+
+        return history[frameno * k + k - 1];
+    }
+
+    /** Counts the heap entries pickVictim has looked at */
+    public long getSweepSteps() {
+
+        return sweepSteps.sum();
+    }
+
+    private void reference(int frameno) {
+
+        int base = frameno * k;
+        for (int i = k - 1; i > 0; --i)
+            history[base + i] = history[base + i - 1];
+        history[base] = ++clock;
+    }
+
+    private void clear(int frameno) {
+
+        Arrays.fill(history, frameno * k, frameno * k + k, 0);
+    }
+
+    // orders frames by K-th reference, then by last reference
+    private boolean before(int a, int b) {
+
+        long kthA = history[a * k + k - 1];
+        long kthB = history[b * k + k - 1];
+        if (kthA != kthB)
+            return kthA < kthB;
+        return history[a * k] < history[b * k];
+    }
+
+    private void insert(int frameno) {
+
+        heap[heapSize] = frameno;
+        place[frameno] = heapSize;
+        siftUp(heapSize++);
+    }
+
+    private void remove(int frameno) {
+
+        int i = place[frameno];
+        if (i == NONE)
+            return;
+        place[frameno] = NONE;
+        int last = heap[--heapSize];
+        if (i == heapSize)
+            return;
+        heap[i] = last;
+        place[last] = i;
+        siftDown(i);
+        siftUp(place[last]);
+    }
+
+    private void siftUp(int i) {
+
+        int frameno = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!before(frameno, heap[parent]))
+                break;
+            heap[i] = heap[parent];
+            place[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = frameno;
+        place[frameno] = i;
+    }
+
+    private void siftDown(int i) {
+
+        int frameno = heap[i];
+        while (2 * i + 1 < heapSize) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && before(heap[child + 1], heap[child]))
+                ++child;
+            if (!before(heap[child], frameno))
+                break;
+            heap[i] = heap[child];
+            place[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = frameno;
+        place[frameno] = i;
+    }
+}
@@ -0,0 +1,120 @@
+package bufmgr;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background writer that keeps the share of dirty frames in a buffer pool
+ * at or below a target, so that a miss rarely has to write its victim back
+ * before it can read.  The cleaner writes dirty unpinned frames, at most a
+ * given number per second.  Each round starts at the replacement policy's
+ * hand if it has one, so the frames about to be evicted are cleaned first;
+ * otherwise the cleaner sweeps with a hand of its own.  Each shard of the
+ * default pool has a cleaner of its own, which looks only at that shard's
+ * frames.
+ * <p>
+ * While the pool is at or below its target the cleaner is parked, and the
+ * unpin that makes a frame dirty wakes it once the pool goes over.
+ */
+class PageCleaner extends Thread {
+
+    /** How often the cleaner wakes up while over target, in milliseconds. */
+    static final int TICK_MILLIS = 1;
+
+    private final BufMgr bufmgr;
+    private final double dirtyTarget;
+    private final int writesPerSecond;
+
+    private volatile boolean running = true;
+
+    // set while parked, so that dirty unpins know to wake the cleaner
+    private volatile boolean parked;
+
+    // the cleaner's own position in the frame table
+    private int current;
+
+    PageCleaner(BufMgr bufmgr, double dirtyTarget, int writesPerSecond) {
+
+        super("PageCleaner");
+        setDaemon(true);
+        this.bufmgr = bufmgr;
+        this.dirtyTarget = dirtyTarget;
+        this.writesPerSecond = writesPerSecond;
+    }
+
+    public void run() {
+
+        // writes allowed but not yet spent; carries fractions between ticks
+        double allowance = 0;
+        while (running) {
+
+            // nothing to write: wait for a dirty unpin to push the pool over,
+            // checking again once parked is set so that no wake-up is missed
+            if (!overTarget()) {
+                parked = true;
+                if (!overTarget() && running)
+                    LockSupport.park(this);
+                parked = false;
+                continue;
+            }
+
+            allowance = Math.min(allowance + writesPerSecond * TICK_MILLIS / 1000.0,
+                Math.max(1, writesPerSecond));
+            int numframes = bufmgr.getOwnFrames();
+            int target = (int) (dirtyTarget * numframes);
+
+            int hand = bufmgr.nextCandidate();
+            if (hand >= 0 && hand < numframes)
+                current = hand;
+
+            // stop once a whole sweep finds nothing it may write
+            int idle = 0;
+            while (allowance >= 1 && bufmgr.getOwnDirty() > target
+                && idle < numframes && running) {
+
+                int frameno = current;
+                current = (current + 1) % numframes;
+                if (bufmgr.writeBack(frameno)) {
+                    allowance -= 1;
+                    idle = 0;
+                } else {
+                    ++idle;
+                }
+            }
+
+            try {
+                Thread.sleep(TICK_MILLIS);
+            } catch (InterruptedException exc) {
+                // woken up by shutdown
+            }
+        }
+    }
+
+    /**
+     * Tells the cleaner that a frame of its pool became dirty, waking it if
+     * that put the pool over its target.
+     */
+    void dirtied() {
+
+        if (parked && overTarget())
+            LockSupport.unpark(this);
+    }
+
+    private boolean overTarget() {
+
+        return bufmgr.getOwnDirty() > (int) (dirtyTarget * bufmgr.getOwnFrames());
+    }
+
+    /**
+     * Stops the cleaner and waits for its current write to finish.
+     */
+    void shutdown() {
+
+        running = false;
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
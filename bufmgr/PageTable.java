@@ -0,0 +1,141 @@
+package bufmgr;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Page table of a buffer pool: maps disk page numbers to frame numbers.
+ * It is an open-addressing hash table with linear probing, holding each
+ * entry as one long (page number in the high half, frame number in the low
+ * half), so lookups allocate nothing and there are no per-entry objects.
+ * <p>
+ * Lookups take no lock.  Updates must be serialized by the caller.  The
+ * table never holds more entries than it was sized for, so it never grows;
+ * removal shifts later entries of the probe run back instead of leaving
+ * tombstones, and a lookup that misses while entries were being shifted
+ * probes again.
+ */
+public class PageTable {
+
+    /** Slot holding no entry; no entry has page number -1. */
+    private static final long EMPTY = -1L;
+
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final int shift;
+
+    // odd while a removal is shifting entries; bumped before and after
+    private volatile int shifts;
+
+    private int size;
+
+    /**
+     * Constructs a table for up to the given number of entries.
+     */
+    public PageTable(int maxEntries) {
+
+        // at most half full, so probe runs stay short
+        int capacity = Integer.highestOneBit(Math.max(2, maxEntries) * 2 - 1) << 1;
+        slots = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; ++i)
+            slots.set(i, EMPTY);
+        mask = capacity - 1;
+        shift = Integer.numberOfLeadingZeros(mask);
+    }
+
+    /**
+     * Gets the frame holding the given page, or -1 if none does.
+     */
+    public int get(int pid) {
+
+        for (;;) {
+            int before = shifts;
+            for (int i = slot(pid); ; i = (i + 1) & mask) {
+                long entry = slots.get(i);
+                if (entry == EMPTY)
+                    break;
+                if ((int) (entry >>> 32) == pid)
+                    return (int) entry;
+            }
+            // a shift may have moved the entry behind us
+            if ((before & 1) == 0 && shifts == before)
+                return -1;
+        }
+    }
+
+    /**
+     * True if the table maps the given page.
+     */
+    public boolean containsKey(int pid) {
+
+        return get(pid) != -1;
+    }
+
+    /**
+     * Maps a page that is not in the table to a frame.
+     *
+     * @throws IllegalStateException if the table is full
+     */
+    public void put(int pid, int frameno) {
+
+        if (size == slots.length() / 2)
+            throw new IllegalStateException("Page table is full");
+        int i = slot(pid);
+        while (slots.get(i) != EMPTY)
+            i = (i + 1) & mask;
+        slots.set(i, ((long) pid << 32) | (frameno & 0xFFFFFFFFL));
+        ++size;
+    }
+
+    /**
+     * Unmaps a page, if mapped.
+     *
+     * @return the frame the page was mapped to, or -1
+     */
+    public int remove(int pid) {
+
+        int i = slot(pid);
+        long entry;
+        for (;; i = (i + 1) & mask) {
+            entry = slots.get(i);
+            if (entry == EMPTY)
+                return -1;
+            if ((int) (entry >>> 32) == pid)
+                break;
+        }
+
+        // shift later entries of the run back into the hole, unless they
+        // already sit at or after their home slot relative to it
+        shifts = shifts + 1;
+        for (int j = (i + 1) & mask; ; j = (j + 1) & mask) {
+            long next = slots.get(j);
+            if (next == EMPTY)
+                break;
+            int home = slot((int) (next >>> 32));
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                slots.set(i, next);
+                i = j;
+            }
+        }
+        slots.set(i, EMPTY);
+        shifts = shifts + 1;
+        --size;
+        return (int) entry;
+    }
+
+    /**
+     * Gets the number of pages mapped.
+     */
+    public int size() {
+
+        return size;
+    }
+
+    /**
+     * Home slot of a page number, by multiplicative hashing, which spreads
+     * runs of consecutive page numbers across the table.
+     */
+    private int slot(int pid) {
+
+        return (pid * 0x9E3779B9) >>> shift;
+    }
+}
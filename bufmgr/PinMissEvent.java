@@ -0,0 +1,30 @@
+package bufmgr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for a pin that waited for the miss latch, with the
+ * time it took.  Off unless a recording enables minibase.PinMiss.
+ */
+@Name("minibase.PinMiss")
+@Label("Pin Miss")
+@Category({ "Minibase", "Buffer Manager" })
+@Description("A pin that found its page missing and waited for the miss latch")
+@Enabled(false)
+final class PinMissEvent extends Event {
+
+    @Label("Page Id")
+    int pageId;
+
+    @Label("Frame")
+    @Description("Frame the page was pinned in")
+    int frame;
+
+    @Label("Pool")
+    String pool;
+}
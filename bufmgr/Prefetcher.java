@@ -0,0 +1,82 @@
+package bufmgr;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background thread that reads pages into a buffer pool without pinning
+ * them.  Requests are served in order; each one stops early if the pool
+ * has no frame to spare, and skips pages that do not exist.
+ */
+class Prefetcher {
+
+    private final BufMgr bufmgr;
+    private final ExecutorService executor;
+
+    Prefetcher(BufMgr bufmgr) {
+
+        this.bufmgr = bufmgr;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "Prefetcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues a run of consecutive pages to be read.
+     *
+     * @param progress if not null, the requesting stream: pages at or below
+     * its last page are skipped, since the stream has already pinned them
+     * on demand, the request is dropped once its run number moves on from
+     * its value at submission, and pages evicted unused are charged to it
+     */
+    void submit(final int firstPid, final int count, final ReadAhead.Progress progress) {
+
+        final int run = progress == null ? 0 : progress.run;
+        executor.execute(new Runnable() {
+            public void run() {
+                for (int i = 0; i < count; ++i) {
+                    int pid = firstPid + i;
+                    if (progress != null && progress.run != run)
+                        return;
+                    if (progress != null && pid <= progress.lastPid)
+                        continue;
+                    if (!bufmgr.prefetchPage(pid, progress))
+                        return;
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues a batch of pages to be read, in runs of consecutive pages.
+     *
+     * @param pids page numbers, sorted and distinct
+     */
+    void submit(final int [] pids) {
+
+        executor.execute(new Runnable() {
+            public void run() {
+                bufmgr.prefetchPages(pids);
+            }
+        });
+    }
+
+    /**
+     * Drops queued requests and waits for the one in progress.
+     */
+    void shutdown() {
+
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package bufmgr;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sequential read-ahead for PIN_DISKIO pins.  Each thread is treated as its
+ * own stream.  Once a stream pins two consecutive pages, the pages after
+ * them are queued for the prefetcher, and when the stream reaches the middle
+ * of what was read ahead, the next window is queued, so reads stay ahead of
+ * the scan.
+ * <p>
+ * The window starts at MIN_WINDOW pages.  Each time a stream queues more,
+ * it doubles the window if none of the pages prefetched for it has been
+ * evicted unused since its last request, and halves it otherwise.  Pages
+ * wasted by other streams or by explicit prefetches do not count.
+ */
+class ReadAhead {
+
+    /** Window of a stream that has just turned sequential. */
+    static final int MIN_WINDOW = 4;
+
+    /**
+     * State of a stream that the prefetcher and the frames it fills share:
+     * written by the stream's thread and read by the prefetcher, or
+     * counted by whichever thread evicts a page prefetched for it.
+     */
+    static final class Progress {
+
+        // last page pinned and the number of the current sequential run,
+        // so the prefetcher can skip pages the stream has passed and drop
+        // requests left over from earlier runs
+        volatile int lastPid = -2;
+        volatile int run;
+
+        // pages prefetched for the stream and evicted without a pin
+        final AtomicLong wasted = new AtomicLong();
+    }
+
+    /** Per-thread state of one access stream. */
+    private static class Stream {
+
+        final Progress progress = new Progress();
+
+        // first page not yet queued
+        int fetchedUpTo = -1;
+
+        // page whose pin queues the next window
+        int trigger;
+
+        int window = MIN_WINDOW;
+
+        // the stream's wasted-prefetch count when it last queued
+        long wasted;
+    }
+
+    private final int maxWindow;
+    private final Prefetcher prefetcher;
+
+    private final ThreadLocal<Stream> streams = new ThreadLocal<Stream>() {
+        protected Stream initialValue() {
+            return new Stream();
+        }
+    };
+
+    ReadAhead(BufMgr bufmgr, int maxWindow) {
+
+        this.maxWindow = Math.max(1, maxWindow);
+        this.prefetcher = new Prefetcher(bufmgr);
+    }
+
+    /**
+     * Records a PIN_DISKIO pin by the current thread and queues read-ahead
+     * if the thread is scanning.
+     */
+    void access(int pid) {
+
+        Stream stream = streams.get();
+        int lastPid = stream.progress.lastPid;
+        if (pid == lastPid)
+            return;
+        stream.progress.lastPid = pid;
+        if (pid != lastPid + 1) {
+            // random access: forget the stream
+            if (stream.fetchedUpTo >= 0)
+                stream.progress.run = stream.progress.run + 1;
+            stream.fetchedUpTo = -1;
+            stream.window = Math.min(MIN_WINDOW, maxWindow);
+            return;
+        }
+        if (stream.fetchedUpTo >= 0 && pid < stream.trigger)
+            return;
+
+        // adapt to how the last window fared
+        long wasted = stream.progress.wasted.get();
+        if (stream.fetchedUpTo >= 0) {
+            if (wasted > stream.wasted)
+                stream.window = Math.max(1, stream.window / 2);
+            else
+                stream.window = Math.min(maxWindow, stream.window * 2);
+        }
+        stream.wasted = wasted;
+
+        int first = Math.max(pid + 1, stream.fetchedUpTo);
+        int end = pid + 1 + stream.window;
+        stream.fetchedUpTo = Math.max(end, stream.fetchedUpTo);
+        stream.trigger = pid + 1 + stream.window / 2;
+        if (end > first)
+            prefetcher.submit(first, end - first, stream.progress);
+    }
+
+    /**
+     * Drops queued read-ahead and waits for the read in progress.
+     */
+    void shutdown() {
+
+        prefetcher.shutdown();
+    }
+}
@@ -0,0 +1,110 @@
+package bufmgr;
+
+/**
+ * A buffer replacement policy decides which frame the buffer manager gives
+ * up on a miss.  The buffer manager reports every event that may matter to
+ * a policy through the hooks below, always by frame number.
+ * <p>
+ * pickVictim, pinned, evicted and freed are called with the buffer
+ * manager's miss latch held.  hit and unpinned are called from the
+ * lock-free hit path, possibly by several threads at once, so they must be
+ * thread-safe and cheap.
+ */
+public interface ReplacementPolicy {
+
+  /**
+   * Called once by the buffer manager before any other hook.
+   *
+   * @param frametab the buffer pool; policies may read but not modify it
+   */
+  public void init(FrameDesc [] frametab);
+
+  /**
+   * The buffer pool has been resized and now uses the first numframes
+   * frames of frametab, which may be a longer table than before.  Frames
+   * keep their numbers.  Frames from numframes on are being retired and
+   * must never be picked, but hit and unpinned calls already under way may
+   * still name them, and must do no harm.  Frames the pool takes back get
+   * pinned and unpinned calls for the pages they hold.
+   */
+  public void resize(FrameDesc [] frametab, int numframes);
+
+  /**
+   * Returns the number of an unpinned frame to replace.  The buffer manager
+   * hands out empty frames from its own free list first, so this is normally
+   * only called once the pool is full.  The buffer manager still has to claim
+   * the frame, so a frame pinned in the meantime is simply asked for again.
+   *
+   * @return a frame number, or -1 if every frame is pinned
+   */
+  public int pickVictim();
+
+  /**
+   * A page has just been read or copied into the frame and pinned.
+   */
+  public void pinned(int frameno);
+
+  /**
+   * A page already in the frame has been pinned again.
+   */
+  public void hit(int frameno);
+
+  /**
+   * A pin on the frame has been released.
+   */
+  public void unpinned(int frameno);
+
+  /**
+   * The frame's page is about to be replaced by another page.
+   */
+  public void evicted(int frameno);
+
+  /**
+   * The frame's page has been freed; the frame is now empty.
+   */
+  public void freed(int frameno);
+
+  /**
+   * The frame's page will not be needed again soon, so it should be among
+   * the next victims.  Called for unpinned frames only, from the lock-free
+   * path as well, so it must be thread-safe and cheap.
+   */
+  public void demote(int frameno);
+
+  /**
+   * Returns the frame a sweeping policy will look at next, so the page
+   * cleaner can write back the frames just ahead of it.  Called without the
+   * miss latch, so the answer may be slightly out of date.
+   *
+   * @return a frame number, or -1 if the policy has no sweeping hand
+   */
+  public default int nextCandidate() {
+    return -1;
+  }
+
+  /**
+   * Returns how much the policy wants to keep the frame's page, so the
+   * buffer manager can save the hottest pages of a pool for the next
+   * start.  Higher is hotter; only the order of the values matters.
+   * Called without the miss latch, so the answer may be slightly out of
+   * date.
+   *
+   * @return a hotness value, 0 if the policy does not rank the frame
+   */
+  public default long hotness(int frameno) {
+    return 0;
+  }
+
+  /**
+   * Returns the number of frames pickVictim has looked at so far, whether
+   * a sweeping hand passed over them or they were entries of a list or
+   * heap the policy walked, so the buffer manager can report how much
+   * work each eviction takes.  Called without the miss latch.
+   *
+   * @return a frame count, 0 if the policy does not count them
+   */
+  public default long getSweepSteps() {
+    return 0;
+  }
+
+} // public interface ReplacementPolicy
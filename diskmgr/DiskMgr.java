@@ -1,13 +1,26 @@
 package diskmgr;
 
+import bufmgr.BufMgr;
 import global.GlobalConst;
+import global.LatencyHistogram;
 import global.Minibase;
 import global.Page;
 import global.PageId;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
 
 /**
  * <h3>Minibase Disk Manager</h3>
@@ -28,6 +41,13 @@ public class DiskMgr implements GlobalConst {
   /** Number of actual bits per page. */
   protected static final int BITS_PER_PAGE = PAGE_SIZE * 8;
 
+  /** Suffix of the file, next to the database file, that lists the pages
+   * resident in the buffer pool when it was last saved. */
+  public static final String RESIDENT_SUFFIX = ".warm";
+
+  /** Number of saved pages in each prefetch request on open. */
+  protected static final int WARMUP_BATCH = 64;
+
   // --------------------------------------------------------------------------
 
   /** Pages in the database are stored as an Operating System file.  
@@ -46,6 +66,21 @@ public class DiskMgr implements GlobalConst {
   /** Number of disk page writes since database construction. */
   protected int write_cnt;
 
+  /** Latencies of page reads, in nanoseconds; a read_pages call counts
+   * once per page, at its share of the call's time. */
+  protected final LatencyHistogram readLatency = new LatencyHistogram();
+
+  /** Latencies of page writes, in nanoseconds; a write_pages call counts
+   * once per page, at its share of the call's time. */
+  protected final LatencyHistogram writeLatency = new LatencyHistogram();
+
+  /** Timer that saves the resident pages periodically, or null. */
+  protected Timer warmupSaver;
+
+  /** Guards warmupSaver and the saved list, apart from the page I/O lock,
+   * so that saving the list never holds up reads and writes. */
+  protected final Object warmupLock = new Object();
+
   // ------Manage the DB--------------------
 
 
@@ -59,9 +94,10 @@ public class DiskMgr implements GlobalConst {
     name = fname;
     num_db_pages = (num_db_pgs > 2) ? num_db_pgs : 2;
 
-    // overwrite an existing file
+    // overwrite an existing file, and forget what was resident in it
     File DBfile = new File(name);
     DBfile.delete();
+    new File(name + RESIDENT_SUFFIX).delete();
 
     // create the database file, num_pages pages long
     try {
@@ -72,10 +108,12 @@ public class DiskMgr implements GlobalConst {
       Minibase.haltSystem(exc);
     }
 
-    // create and initialize the first DB page
+    // create and initialize the first DB page, in place in its frame
     PageId pageId = new PageId(FIRST_PAGEID);
-    DBFirstPage firstpg = new DBFirstPage();
-    Minibase.BufferManager.pinPage(pageId, firstpg, PIN_MEMCPY);
+    Page apage = new Page();
+    Minibase.BufferManager.pinPage(pageId, apage, PIN_NOOP);
+    DBFirstPage firstpg = new DBFirstPage(apage);
+    firstpg.initDefaults();
     firstpg.setNumDBPages(num_db_pages);
     Minibase.BufferManager.unpinPage(pageId, UNPIN_DIRTY);
 
@@ -102,7 +140,8 @@ public class DiskMgr implements GlobalConst {
       Minibase.haltSystem(exc);
     }
 
-    // read the first page
+    // read the first page; until it says otherwise, it is the only one
+    num_db_pages = FIRST_PAGEID + 1;
     PageId pageId = new PageId(FIRST_PAGEID);
     Page apage = new Page();
     Minibase.BufferManager.pinPage(pageId, apage, PIN_DISKIO);
@@ -112,14 +151,51 @@ public class DiskMgr implements GlobalConst {
     num_db_pages = firstpg.getNumDBPages();
     Minibase.BufferManager.unpinPage(pageId, UNPIN_CLEAN);
 
+    // warm the buffer pool with what was resident at the last close
+    prefetch_resident_pages();
+
   } // public void openDB(String fname)
 
+  /**
+   * Routes the database's own pages -- the first page, the space map and
+   * the library -- to the named buffer pool, so a pool sized to hold them
+   * keeps them resident however much data traffic goes through the others.
+   * Library pages added later go to the same pool.
+   *
+   * @param pool name of a pool added with BufMgr.addPool
+   */
+  public void routeMetadata(String pool) {
+
+    // the first page and the space map are a single run
+    int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
+    Minibase.BufferManager.routePages(pool, new PageId(FIRST_PAGEID),
+        1 + num_map_pages);
+
+    // follow the chain of library pages after the first
+    DBHeaderPage hpage = new DBHeaderPage();
+    PageId hpid = new PageId(FIRST_PAGEID);
+    PageId nexthpid;
+    do {
+      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
+      nexthpid = hpage.getNextPage();
+      Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
+      if (nexthpid.pid != INVALID_PAGEID) {
+        Minibase.BufferManager.routePages(pool, nexthpid, 1);
+      }
+      hpid.pid = nexthpid.pid;
+    } while (nexthpid.pid != INVALID_PAGEID);
+
+  } // public void routeMetadata(String pool)
+
   /**
    * Close the database file.  Ensure that buffer contents have been
    * written to disk and close the OS file.
    */
   public void closeDB() {
     try {
+      stopWarmupSaver();
+      Minibase.BufferManager.stopBackgroundThreads();
+      save_resident_pages();
       Minibase.BufferManager.flushAllFrames();
       fp.close();
     } catch (IOException exc) {
@@ -134,7 +210,120 @@ public class DiskMgr implements GlobalConst {
     closeDB();
     File DBfile = new File(name);
     DBfile.delete();
+    new File(name + RESIDENT_SUFFIX).delete();
   }
+
+  /**
+   * Saves the ids of the pages resident in the buffer pool, hottest first,
+   * to a file next to the database file, so the next openDB can read them
+   * back in.  The file is replaced as a whole, so a crash while saving
+   * leaves the previous list.  The list is only a hint: if it cannot be
+   * written, the next open simply starts cold.  Page reads and writes go
+   * on meanwhile.
+   */
+  public void save_resident_pages() {
+
+    PageId[] pagenos = Minibase.BufferManager.getResidentPages();
+    synchronized (warmupLock) {
+      File temp = new File(name + RESIDENT_SUFFIX + ".tmp");
+      try {
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+          out.writeInt(pagenos.length);
+          for (PageId pageno : pagenos)
+            out.writeInt(pageno.pid);
+        } finally {
+          out.close();
+        }
+        Files.move(temp.toPath(), new File(name + RESIDENT_SUFFIX).toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException exc) {
+        temp.delete();
+      }
+    }
+
+  } // public void save_resident_pages()
+
+  /**
+   * Starts the background reading of the pages saved by the last
+   * save_resident_pages.  As many of the hottest pages as the buffer pool
+   * holds are read, in page number order and in batches, so the pool warms
+   * up quickly while the first requests are served.  Pages no longer in the
+   * database are skipped, as is a list that cannot be read.
+   */
+  protected void prefetch_resident_pages() {
+
+    File warm = new File(name + RESIDENT_SUFFIX);
+    if (!warm.exists())
+      return;
+
+    int[] pids;
+    int count = 0;
+    try {
+      DataInputStream in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(warm)));
+      try {
+        int saved = in.readInt();
+        pids = new int[Math.max(0, Math.min(saved,
+            Minibase.BufferManager.getNumFrames()))];
+        for (int i = 0; i < pids.length; ++i) {
+          int pid = in.readInt();
+          if (pid > FIRST_PAGEID && pid < num_db_pages)
+            pids[count++] = pid;
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException exc) {
+      return;
+    }
+
+    Arrays.sort(pids, 0, count);
+    for (int lo = 0; lo < count; lo += WARMUP_BATCH) {
+      PageId[] batch = new PageId[Math.min(WARMUP_BATCH, count - lo)];
+      for (int i = 0; i < batch.length; ++i)
+        batch[i] = new PageId(pids[lo + i]);
+      Minibase.BufferManager.prefetch(batch);
+    }
+
+  } // protected void prefetch_resident_pages()
+
+  /**
+   * Starts saving the resident pages every periodMillis milliseconds, so a
+   * crash still leaves a recent list for the next open.  closeDB stops it.
+   *
+   * @throws IllegalArgumentException if periodMillis is not positive
+   */
+  public void startWarmupSaver(long periodMillis) {
+
+    if (periodMillis <= 0)
+      throw new IllegalArgumentException("Invalid period; start aborted");
+    synchronized (warmupLock) {
+      stopWarmupSaver();
+      warmupSaver = new Timer("WarmupSaver", true);
+      warmupSaver.schedule(new TimerTask() {
+        public void run() {
+          save_resident_pages();
+        }
+      }, periodMillis, periodMillis);
+    }
+
+  } // public void startWarmupSaver(long periodMillis)
+
+  /**
+   * Stops saving the resident pages periodically, if started.
+   */
+  public void stopWarmupSaver() {
+
+    synchronized (warmupLock) {
+      if (warmupSaver != null) {
+        warmupSaver.cancel();
+        warmupSaver = null;
+      }
+    }
+
+  } // public void stopWarmupSaver()
   
 //-----Manage Logical File Layer -------------------
   /**
@@ -145,7 +334,7 @@ public class DiskMgr implements GlobalConst {
    * @param mempage output parameter to hold the contents of the page
    * @throws IllegalArgumentException if pageno is invalid
    */
-  public void read_page(PageId pageno, Page mempage) {
+  public synchronized void read_page(PageId pageno, Page mempage) {
 
     // validate the page id
     if ((pageno.pid < 0) || (pageno.pid >= num_db_pages)) {
@@ -153,6 +342,9 @@ public class DiskMgr implements GlobalConst {
     }
 
     // seek to the correct page on disk and read it
+    long start = System.nanoTime();
+    PageReadEvent event = new PageReadEvent();
+    event.begin();
     try {
       fp.seek((long) (pageno.pid * PAGE_SIZE));
       fp.read(mempage.getData());
@@ -160,9 +352,57 @@ public class DiskMgr implements GlobalConst {
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
+    readLatency.record(System.nanoTime() - start);
+    if (event.shouldCommit()) {
+      event.pageId = pageno.pid;
+      event.pages = 1;
+      event.commit();
+    }
 
   } // public void read_page(PageId pageno, Page mempage)
 
+  /**
+   * Reads a run of consecutive pages from disk with a single seek.
+   *
+   * @param firstid identifies the first page of the run
+   * @param mempages output parameters to hold the contents of the pages,
+   * one per page of the run
+   * @throws IllegalArgumentException if any page of the run is invalid
+   */
+  public synchronized void read_pages(PageId firstid, Page[] mempages) {
+
+    // validate the whole run before reading any of it
+    if ((firstid.pid < 0) || (firstid.pid + mempages.length > num_db_pages)) {
+      throw new IllegalArgumentException("Invalid page number; read aborted");
+    }
+
+    // one seek and one read for the whole run, then split it into pages
+    long start = System.nanoTime();
+    PageReadEvent event = new PageReadEvent();
+    event.begin();
+    try {
+      byte[] run = new byte[mempages.length * PAGE_SIZE];
+      fp.seek((long) (firstid.pid * PAGE_SIZE));
+      fp.read(run);
+      for (int i = 0; i < mempages.length; i++) {
+        System.arraycopy(run, i * PAGE_SIZE, mempages[i].getData(), 0, PAGE_SIZE);
+      }
+      read_cnt += mempages.length;
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    if (mempages.length > 0) {
+      readLatency.record((System.nanoTime() - start) / mempages.length,
+          mempages.length);
+    }
+    if (event.shouldCommit()) {
+      event.pageId = firstid.pid;
+      event.pages = mempages.length;
+      event.commit();
+    }
+
+  } // public void read_pages(PageId firstid, Page[] mempages)
+
   /**
    * Writes the contents of the given page to disk.
    * 
@@ -170,7 +410,7 @@ public class DiskMgr implements GlobalConst {
    * @param mempage holds the contents of the page
    * @throws IllegalArgumentException if pageno is invalid
    */
-  public void write_page(PageId pageno, Page mempage) {
+  public synchronized void write_page(PageId pageno, Page mempage) {
 
     // validate the page id
     if ((pageno.pid < 0) || (pageno.pid >= num_db_pages)) {
@@ -178,6 +418,9 @@ public class DiskMgr implements GlobalConst {
     }
 
     // seek to the correct page on disk and write it
+    long start = System.nanoTime();
+    PageWriteEvent event = new PageWriteEvent();
+    event.begin();
     try {
       fp.seek((long) (pageno.pid * PAGE_SIZE));
       fp.write(mempage.getData());
@@ -185,8 +428,55 @@ public class DiskMgr implements GlobalConst {
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
+    writeLatency.record(System.nanoTime() - start);
+    if (event.shouldCommit()) {
+      event.pageId = pageno.pid;
+      event.pages = 1;
+      event.commit();
+    }
 
   } // public void write_page(PageId pageno, Page mempage)
+
+  /**
+   * Writes a run of consecutive pages to disk with a single seek and write.
+   *
+   * @param firstid identifies the first page of the run
+   * @param mempages hold the contents of the pages, one per page of the run
+   * @throws IllegalArgumentException if any page of the run is invalid
+   */
+  public synchronized void write_pages(PageId firstid, Page[] mempages) {
+
+    // validate the whole run before writing any of it
+    if ((firstid.pid < 0) || (firstid.pid + mempages.length > num_db_pages)) {
+      throw new IllegalArgumentException("Invalid page number; write aborted");
+    }
+
+    // gather the pages into one buffer, then seek once and write it
+    long start = System.nanoTime();
+    PageWriteEvent event = new PageWriteEvent();
+    event.begin();
+    try {
+      byte[] run = new byte[mempages.length * PAGE_SIZE];
+      for (int i = 0; i < mempages.length; i++) {
+        System.arraycopy(mempages[i].getData(), 0, run, i * PAGE_SIZE, PAGE_SIZE);
+      }
+      fp.seek((long) (firstid.pid * PAGE_SIZE));
+      fp.write(run);
+      write_cnt += mempages.length;
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    if (mempages.length > 0) {
+      writeLatency.record((System.nanoTime() - start) / mempages.length,
+          mempages.length);
+    }
+    if (event.shouldCommit()) {
+      event.pageId = firstid.pid;
+      event.pages = mempages.length;
+      event.commit();
+    }
+
+  } // public void write_pages(PageId firstid, Page[] mempages)
   
   /**
    * Gets the number of disk reads since database construction.
@@ -201,6 +491,24 @@ public class DiskMgr implements GlobalConst {
     return write_cnt;
   }
 
+  /**
+   * Gets the latencies of page reads, in nanoseconds, with each page of a
+   * read_pages run at its share of the run's time.  They cover the disk
+   * access only, not the wait for other threads' I/O.
+   */
+  public LatencyHistogram getReadLatency() {
+    return readLatency;
+  }
+
+  /**
+   * Gets the latencies of page writes, in nanoseconds, with each page of a
+   * write_pages run at its share of the run's time.  They cover the disk
+   * access only, not the wait for other threads' I/O.
+   */
+  public LatencyHistogram getWriteLatency() {
+    return writeLatency;
+  }
+
 //-----Manage allocation and deallocation of pages -------------------
  
   /**
@@ -220,6 +528,8 @@ public class DiskMgr implements GlobalConst {
     }
 
     // calculate the size of the space map
+    PageAllocateEvent event = new PageAllocateEvent();
+    event.begin();
     int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
     int current_run_start = 0;
     int current_run_length = 0;
@@ -284,6 +594,11 @@ public class DiskMgr implements GlobalConst {
     // update the space map and return the resulting page id
     PageId firstpg = new PageId(current_run_start);
     set_bits(firstpg, run_size, 1);
+    if (event.shouldCommit()) {
+      event.pageId = firstpg.pid;
+      event.pages = run_size;
+      event.commit();
+    }
     return firstpg;
 
   } // public PageId allocate_page(int run_size)
@@ -394,11 +709,11 @@ public class DiskMgr implements GlobalConst {
     PageId pgid = new PageId();
     System.out.println("num_map_pages = " + num_map_pages);
     System.out.print("num_pages = " + num_db_pages);
+    Page apage = new Page();
     for (int i = 0; i < num_map_pages; i++) { // start forloop01
 
       // pin the space-map page
       pgid.pid = 1 + i; // space map starts at page1
-      Page apage = new Page();
       Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
 
       // how many bits should we examine on this page?
@@ -464,11 +779,11 @@ public class DiskMgr implements GlobalConst {
     int first_bit_no = start_page.pid % BITS_PER_PAGE;
 
     // the outer loop goes over all space-map pages we need to touch
+    Page pg = new Page();
     for (PageId pgid = new PageId(first_map_page); pgid.pid <= last_map_page; pgid.pid = pgid.pid + 1, first_bit_no = 0) {
       // Start forloop01
 
       // pin the space-map page
-      Page pg = new Page();
       Minibase.BufferManager.pinPage(pgid, pg, PIN_DISKIO);
       byte[] pgbuf = pg.getData();
 
@@ -584,16 +899,21 @@ public class DiskMgr implements GlobalConst {
     // if necessary (and possible), add a new header page to the library
     if (!found) {
 
-      // allocate the new header page
+      // allocate the new header page, in the pool that holds the rest of
+      // the library if it was given one
       nexthpid = allocate_page();
+      String pool = Minibase.BufferManager.getPoolName(new PageId(FIRST_PAGEID));
+      if (!BufMgr.DEFAULT_POOL.equals(pool)) {
+        Minibase.BufferManager.routePages(pool, nexthpid, 1);
+      }
 
       // set the next-page pointer on the previous library page
       hpage.setNextPage(nexthpid);
       Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
 
-      // pin the newly-allocated directory page
+      // pin the newly-allocated directory page and initialize it in place
       hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_MEMCPY);
+      Minibase.BufferManager.pinPage(hpid, hpage, PIN_NOOP);
       hpage.initDefaults();
       free_slot = 0;
 
@@ -672,53 +992,65 @@ public class DiskMgr implements GlobalConst {
    */
   public PageId get_file_entry(String fname) {
 
-    // search the library pages for the entry's slot
-    boolean found = false;
-    int slot = 0;
+    // search the library pages for the entry
+    PageId startpid = new PageId();
     DBHeaderPage hpage = new DBHeaderPage();
     PageId hpid = new PageId();
-    PageId tmppid = new PageId();
     PageId nexthpid = new PageId(0);
+    boolean found = false;
     do {
 
-      // pin the next library page and get its next
+      // read the next library page without pinning it if we can; pin it
+      // if it is not in the pool or changed while we read it
       hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
-      nexthpid = hpage.getNextPage();
-
-      // search the library page for the entry
-      int entry = 0;
-      String tmpname;
-      while (entry < hpage.getNumOfEntries()) {
-        tmpname = hpage.getFileEntry(tmppid, entry);
-        if ((tmppid.pid != INVALID_PAGEID)
-            && (tmpname.compareToIgnoreCase(fname) == 0)) {
-          break;
+      long stamp = Minibase.BufferManager.tryOptimisticRead(hpid, hpage);
+      RuntimeException failure = null;
+      if (stamp != 0) {
+        try {
+          nexthpid = hpage.getNextPage();
+          found = search_library_page(hpage, fname, startpid);
+        } catch (RuntimeException exc) {
+          // a torn read fails the validation below; if it passes, the
+          // page itself is bad, and reading it again would only loop
+          failure = exc;
         }
-        entry++;
       }
-
-      // verify the entry slot was found
-      if (entry < hpage.getNumOfEntries()) {
-        slot = entry;
-        found = true;
+      if (Minibase.BufferManager.validate(stamp)) {
+        if (failure != null)
+          throw failure;
+      } else {
+        Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
+        nexthpid = hpage.getNextPage();
+        found = search_library_page(hpage, fname, startpid);
+        Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
       }
 
-      // unpin the page before continuing or exiting loop
-      Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
-
     } while ((nexthpid.pid != INVALID_PAGEID) && (!found));
 
     // return null if not found
-    if (!found) {
-      return null;
-    }
-
-    // otherwise, return the first page id
-    PageId startpid = new PageId();
-    hpage.getFileEntry(startpid, slot);
-    return startpid;
+    return found ? startpid : null;
 
   } // public PageId get_file_entry(String fname)
 
+  /**
+   * Searches one library page for the entry for the given file name.
+   *
+   * @param startpid output: the file's first page, if found
+   * @return true if the entry is on this page
+   */
+  protected boolean search_library_page(DBHeaderPage hpage, String fname,
+      PageId startpid) {
+
+    int num_entries = hpage.getNumOfEntries();
+    for (int entry = 0; entry < num_entries; entry++) {
+      String tmpname = hpage.getFileEntry(startpid, entry);
+      if ((startpid.pid != INVALID_PAGEID)
+          && (tmpname.compareToIgnoreCase(fname) == 0)) {
+        return true;
+      }
+    }
+    return false;
+
+  } // protected boolean search_library_page(DBHeaderPage hpage, String fname, PageId startpid)
+
 } // public class DiskMgr implements GlobalConst
@@ -0,0 +1,26 @@
+package diskmgr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for the allocation of a run of pages, with the
+ * time the space map search took.  Off unless a recording enables
+ * minibase.PageAllocate.
+ */
+@Name("minibase.PageAllocate")
+@Label("Page Allocate")
+@Category({ "Minibase", "Disk Manager" })
+@Enabled(false)
+final class PageAllocateEvent extends Event {
+
+  @Label("Page Id")
+  int pageId;
+
+  @Label("Pages")
+  int pages;
+
+} // final class PageAllocateEvent extends Event
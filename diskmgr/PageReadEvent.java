@@ -0,0 +1,25 @@
+package diskmgr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for a disk read of a page or a run of pages, with
+ * the time it took.  Off unless a recording enables minibase.PageRead.
+ */
+@Name("minibase.PageRead")
+@Label("Page Read")
+@Category({ "Minibase", "Disk Manager" })
+@Enabled(false)
+final class PageReadEvent extends Event {
+
+  @Label("Page Id")
+  int pageId;
+
+  @Label("Pages")
+  int pages;
+
+} // final class PageReadEvent extends Event
@@ -0,0 +1,25 @@
+package diskmgr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for a disk write of a page or a run of pages, with
+ * the time it took.  Off unless a recording enables minibase.PageWrite.
+ */
+@Name("minibase.PageWrite")
+@Label("Page Write")
+@Category({ "Minibase", "Disk Manager" })
+@Enabled(false)
+final class PageWriteEvent extends Event {
+
+  @Label("Page Id")
+  int pageId;
+
+  @Label("Pages")
+  int pages;
+
+} // final class PageWriteEvent extends Event
@@ -41,6 +41,27 @@ public interface GlobalConst {
   /** Optimization to avoid writing to disk when unpinned. */
   public static final boolean UNPIN_CLEAN = false;
 
+  /** Latch a pinned page for reading; other readers may share it. */
+  public static final int LATCH_SHARED = 20;
+
+  /** Latch a pinned page for writing; nobody else may latch it. */
+  public static final int LATCH_EXCLUSIVE = 21;
+
+  /** No expectation about how pages will be used; the default. */
+  public static final int ADVICE_NORMAL = 30;
+
+  /** Pages will be read in ascending order, each about once. */
+  public static final int ADVICE_SEQUENTIAL = 31;
+
+  /** Pages will be read in no particular order. */
+  public static final int ADVICE_RANDOM = 32;
+
+  /** Pages will be needed soon. */
+  public static final int ADVICE_WILL_NEED = 33;
+
+  /** Pages will not be needed again soon. */
+  public static final int ADVICE_DONT_NEED = 34;
+
   //
   // Heap File Constants
   //
@@ -0,0 +1,317 @@
+package global;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds, in logarithmic buckets as
+ * HdrHistogram keeps them: below 8 every value has its own bucket, and
+ * above that each power of two is split into 8 buckets, so a recorded
+ * value is known to within 12.5%.
+ * <p>
+ * Each thread records into buckets of its own, with no lock and no
+ * shared write, so recording costs a thread-local lookup and a store.
+ * Snapshots merge the threads' buckets on demand.  Resetting does not
+ * touch the threads' buckets either; it remembers the merged counts,
+ * which later snapshots subtract.  The buckets of a thread that has ended
+ * are folded into shared counts and dropped, at the next snapshot or when
+ * another thread first records, and they never keep the thread itself
+ * from being collected.
+ * <p>
+ * Timing a call takes two clock reads, which cost more than the recording
+ * itself, so a histogram for a very short path can time only a random
+ * sample of the calls through start and stop, counting each sampled call
+ * for all those it stands for.
+ */
+public class LatencyHistogram {
+
+  /** Number of buckets per power of two, as a power of two. */
+  private static final int SUB_BITS = 3;
+
+  /** Number of buckets, enough for any positive long. */
+  public static final int NUM_BUCKETS = bucket(Long.MAX_VALUE) + 1;
+
+  /** Buckets of one thread, written only by that thread. */
+  private static class Recorder {
+
+    final WeakReference<Thread> owner =
+        new WeakReference<Thread>(Thread.currentThread());
+
+    final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+    /**
+     * Tells whether the owner has ended, so that it records nothing more.
+     */
+    boolean ended() {
+      Thread thread = owner.get();
+      return thread == null || !thread.isAlive();
+    }
+
+  } // private static class Recorder
+
+  private final ConcurrentLinkedQueue<Recorder> recorders =
+      new ConcurrentLinkedQueue<Recorder>();
+
+  private final ThreadLocal<Recorder> local = ThreadLocal.withInitial(() -> {
+    // new threads come as others end, so drop the ended ones' buckets
+    retire();
+    Recorder recorder = new Recorder();
+    recorders.add(recorder);
+    return recorder;
+  });
+
+  // start times only every sampleMask + 1 calls, on average
+  private final int sampleMask;
+
+  // counts of threads that have ended, and the counts at the last reset;
+  // both guarded by this
+  private final long[] retired = new long[NUM_BUCKETS];
+  private long[] baseline = new long[NUM_BUCKETS];
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a histogram that times every call.
+   */
+  public LatencyHistogram() {
+    this(1);
+  }
+
+  /**
+   * Constructs a histogram that times one call in sampleInterval, at
+   * random.
+   *
+   * @param sampleInterval a power of two
+   * @throws IllegalArgumentException if sampleInterval is not a power of two
+   */
+  public LatencyHistogram(int sampleInterval) {
+    if (sampleInterval < 1 || Integer.bitCount(sampleInterval) != 1)
+      throw new IllegalArgumentException("Invalid sample interval");
+    sampleMask = sampleInterval - 1;
+  }
+
+  /**
+   * Starts timing a call.
+   *
+   * @return the time to pass to stop, or 0 if the call is not sampled
+   */
+  public long start() {
+    if (sampleMask != 0 && (ThreadLocalRandom.current().nextInt() & sampleMask) != 0)
+      return 0;
+    return System.nanoTime();
+  }
+
+  /**
+   * Records the latency of a call timed by start, if it was sampled.
+   */
+  public void stop(long start) {
+    if (start != 0)
+      add(System.nanoTime() - start, sampleMask + 1);
+  }
+
+  /**
+   * Records a latency.  Negative values count as 0.
+   */
+  public void record(long nanos) {
+    add(nanos, 1);
+  }
+
+  /**
+   * Records the same latency count times, as for each of count items
+   * handled together in that time each.  Negative values count as 0.
+   */
+  public void record(long nanos, int count) {
+    add(nanos, count);
+  }
+
+  private void add(long nanos, int weight) {
+    AtomicLongArray counts = local.get().counts;
+    int i = bucket(nanos);
+    counts.lazySet(i, counts.get(i) + weight);
+  }
+
+  /**
+   * Gets the latencies recorded since the last reset.
+   */
+  public synchronized Snapshot snapshot() {
+    long[] counts = merge();
+    for (int i = 0; i < NUM_BUCKETS; ++i)
+      counts[i] -= baseline[i];
+    return new Snapshot(counts);
+  }
+
+  /**
+   * Forgets the latencies recorded so far.
+   */
+  public synchronized void reset() {
+    baseline = merge();
+  }
+
+  /**
+   * Gets the latencies recorded since the last reset and resets, so
+   * successive calls cover successive intervals with nothing lost between
+   * them.
+   */
+  public synchronized Snapshot snapshotAndReset() {
+    long[] counts = merge();
+    long[] interval = new long[NUM_BUCKETS];
+    for (int i = 0; i < NUM_BUCKETS; ++i)
+      interval[i] = counts[i] - baseline[i];
+    baseline = counts;
+    return new Snapshot(interval);
+  }
+
+  /**
+   * Adds up every thread's counts since the histogram was created, folding
+   * those of ended threads into the retired counts.
+   */
+  private long[] merge() {
+    retire();
+    long[] counts = retired.clone();
+    for (Recorder recorder : recorders) {
+      for (int i = 0; i < NUM_BUCKETS; ++i)
+        counts[i] += recorder.counts.get(i);
+    }
+    return counts;
+  }
+
+  /**
+   * Folds the counts of ended threads into the retired counts and drops
+   * their buckets.
+   */
+  private synchronized void retire() {
+    for (Iterator<Recorder> it = recorders.iterator(); it.hasNext(); ) {
+      Recorder recorder = it.next();
+      // an ended thread records nothing more, so its counts are final
+      if (recorder.ended()) {
+        for (int i = 0; i < NUM_BUCKETS; ++i)
+          retired[i] += recorder.counts.get(i);
+        it.remove();
+      }
+    }
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Gets the bucket of a latency.
+   */
+  public static int bucket(long nanos) {
+    if (nanos < (1 << SUB_BITS))
+      return (int) Math.max(nanos, 0);
+    int exp = 63 - Long.numberOfLeadingZeros(nanos);
+    int sub = (int) (nanos >>> (exp - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+    return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+  }
+
+  /**
+   * Gets the smallest latency in a bucket.
+   */
+  public static long lowestValue(int bucket) {
+    if (bucket < (1 << SUB_BITS))
+      return bucket;
+    int exp = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+    long sub = bucket & ((1 << SUB_BITS) - 1);
+    return ((1L << SUB_BITS) + sub) << (exp - SUB_BITS);
+  }
+
+  /**
+   * Gets the largest latency in a bucket.
+   */
+  public static long highestValue(int bucket) {
+    return bucket + 1 < NUM_BUCKETS ? lowestValue(bucket + 1) - 1
+        : Long.MAX_VALUE;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Counts of a histogram's buckets at one point in time.
+   */
+  public static class Snapshot {
+
+    private final long[] counts;
+
+    private final long total;
+
+    Snapshot(long[] counts) {
+      this.counts = counts;
+      long sum = 0;
+      for (long count : counts)
+        sum += count;
+      total = sum;
+    }
+
+    /**
+     * Gets the number of latencies in a bucket; see LatencyHistogram.bucket.
+     */
+    public long getCount(int bucket) {
+      return counts[bucket];
+    }
+
+    /**
+     * Gets the number of latencies recorded.
+     */
+    public long getTotalCount() {
+      return total;
+    }
+
+    /**
+     * Gets the latency that the given percentage of the latencies do not
+     * exceed, as the largest value of its bucket; 0 if there are none.
+     */
+    public long getValueAtPercentile(double percentile) {
+      long rank = (long) Math.ceil(total * Math.min(percentile, 100) / 100);
+      long seen = 0;
+      for (int i = 0; i < counts.length; ++i) {
+        seen += counts[i];
+        if (seen >= Math.max(rank, 1))
+          return highestValue(i);
+      }
+      return 0;
+    }
+
+    /**
+     * Gets the largest latency, as the largest value of its bucket; 0 if
+     * there are none.
+     */
+    public long getMaxValue() {
+      for (int i = counts.length - 1; i >= 0; --i) {
+        if (counts[i] != 0)
+          return highestValue(i);
+      }
+      return 0;
+    }
+
+    /**
+     * Gets the mean latency, taking each as the middle of its bucket.
+     */
+    public double getMean() {
+      if (total == 0)
+        return 0;
+      double sum = 0;
+      for (int i = 0; i < counts.length; ++i) {
+        if (counts[i] != 0)
+          sum += counts[i] * ((lowestValue(i) + (double) highestValue(i)) / 2);
+      }
+      return sum / total;
+    }
+
+    /**
+     * Returns the count, mean and usual percentiles, in nanoseconds.
+     */
+    public String toString() {
+      return "count=" + total + " mean=" + Math.round(getMean())
+          + " p50=" + getValueAtPercentile(50)
+          + " p90=" + getValueAtPercentile(90)
+          + " p99=" + getValueAtPercentile(99)
+          + " p99.9=" + getValueAtPercentile(99.9)
+          + " max=" + getMaxValue();
+    }
+
+  } // public static class Snapshot
+
+} // public class LatencyHistogram
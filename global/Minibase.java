@@ -54,6 +54,7 @@ public class Minibase {
     try {
       DiskManager = new DiskMgr();
       BufferManager = new BufMgr(bufpoolsize);
+      BufferManager.getStats().register();
     } catch (Exception exc) {
       haltSystem(exc);
     }
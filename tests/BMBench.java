@@ -0,0 +1,834 @@
+package tests;
+
+import bufmgr.BufMgr;
+import bufmgr.BufferRing;
+import bufmgr.PageTable;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Benchmarks for the bufmgr layer.  These are not pass/fail tests; each one
+ * prints a small table in the style of TestDriver.printSummary.  The larger
+ * pools need a big heap, e.g. java -Xmx3g tests.BMBench.
+ */
+class BMBench extends TestDriver {
+
+  /** The display name of the benchmark suite. */
+  private static final String BENCH_NAME = "buffer manager benchmarks";
+
+  /** Replacement policies compared by the benchmarks. */
+  private static final String[] POLICIES = { "Clock", "LRU", "LRUK", "GClock", "ARC" };
+
+  /**
+   * Benchmark application entry point; runs all benchmarks.
+   */
+  public static void main(String argv[]) {
+
+    BMBench bmb = new BMBench();
+    bmb.create_minibase();
+
+    System.out.println("\n" + "Running " + BENCH_NAME + "...");
+    bmb.bench1();
+    bmb.bench2();
+    bmb.bench3();
+    bmb.bench4();
+    bmb.bench5();
+    bmb.bench6();
+    bmb.bench7();
+    bmb.bench8();
+    bmb.bench9();
+    bmb.bench10();
+    bmb.bench11();
+    bmb.bench12();
+
+    System.out.println();
+    System.out.println("All " + BENCH_NAME + " completed.");
+
+  } // public static void main (String argv[])
+
+  /**
+   * Allocates a run of pages and writes them once, so later reads hit disk.
+   */
+  protected PageId allocRun(int run_size) {
+
+    Page pg = new Page();
+    PageId first = Minibase.BufferManager.newPage(pg, run_size);
+    Minibase.BufferManager.unpinPage(first, UNPIN_DIRTY);
+    PageId pid = new PageId();
+    for (pid.pid = first.pid + 1; pid.pid < first.pid + run_size; pid.pid = pid.pid + 1) {
+      Minibase.BufferManager.pinPage(pid, pg, PIN_NOOP);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    }
+    Minibase.BufferManager.flushAllFrames();
+    return first;
+  }
+
+  /**
+   * Pins and unpins one page with PIN_DISKIO.
+   */
+  protected void touch(PageId pid, Page pg) {
+    Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+    Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+  }
+
+  /**
+   * Hit ratio of each policy on point lookups into a hot set that fits in
+   * the pool, interleaved with long sequential scans that do not.
+   */
+  protected void bench1() {
+
+    System.out.print("\n  Bench 1 mixes point lookups with sequential scans\n");
+
+    int hotPages = BUF_SIZE / 2;
+    int scanPages = BUF_SIZE * 10;
+    int rounds = 50;
+    PageId hot = allocRun(hotPages);
+    PageId scan = allocRun(scanPages);
+    Page pg = new Page();
+    PageId pid = new PageId();
+
+    String seperator = "--------------------------------------";
+    System.out.println(seperator);
+    System.out.println("\tLookup\tScan\tOverall\t(hit ratio)");
+    System.out.println(seperator);
+    for (String policy : POLICIES) {
+
+      Minibase.BufferManager.flushAllFrames();
+      Minibase.BufferManager = new BufMgr(BUF_SIZE, policy);
+      initRandom();
+
+      long lookups = 0, lookupReads = 0, scans = 0, scanReads = 0;
+      for (int round = 0; round < rounds; ++round) {
+
+        // a burst of lookups, each touching a hot page twice as an index
+        // probe would (header, then entry)
+        int before = Minibase.DiskManager.getReadCount();
+        for (int i = 0; i < hotPages * 4; ++i) {
+          pid.pid = hot.pid + random.nextInt(hotPages);
+          touch(pid, pg);
+          touch(pid, pg);
+          lookups += 2;
+        }
+        lookupReads += Minibase.DiskManager.getReadCount() - before;
+
+        // then a scan over a third of the cold region
+        before = Minibase.DiskManager.getReadCount();
+        int start = (round * scanPages / 3) % scanPages;
+        for (int i = 0; i < scanPages / 3; ++i) {
+          pid.pid = scan.pid + (start + i) % scanPages;
+          touch(pid, pg);
+          ++scans;
+        }
+        scanReads += Minibase.DiskManager.getReadCount() - before;
+      }
+
+      System.out.print(policy);
+      System.out.print("\t" + ratio(lookups - lookupReads, lookups));
+      System.out.print("\t" + ratio(scans - scanReads, scans));
+      System.out.print("\t" + ratio(lookups + scans - lookupReads - scanReads,
+          lookups + scans));
+      System.out.println();
+    }
+    System.out.println(seperator);
+
+  } // protected void bench1()
+
+  /**
+   * Cost of a miss as the pool grows.  Misses use PIN_NOOP on clean pages,
+   * so no disk I/O is involved and only the buffer manager's own
+   * bookkeeping is measured.
+   */
+  protected void bench2() {
+
+    System.out.print("\n  Bench 2 measures miss latency against pool size\n");
+
+    int[] sizes = { 1000, 10000, 100000, 1000000 };
+    int misses = 200000;
+    Page pg = new Page();
+    PageId pid = new PageId();
+
+    String seperator = "--------------------------------------";
+    System.out.println(seperator);
+    System.out.println("Frames	ns/miss");
+    System.out.println(seperator);
+    Minibase.BufferManager.flushAllFrames();
+    for (int size : sizes) {
+
+      BufMgr bufmgr = new BufMgr(size);
+      for (pid.pid = 0; pid.pid < size; pid.pid = pid.pid + 1) {
+        bufmgr.pinPage(pid, pg, PIN_NOOP);
+        bufmgr.unpinPage(pid, UNPIN_CLEAN);
+      }
+
+      // two passes; the first one warms up the JIT
+      long elapsed = 0;
+      for (int pass = 0; pass < 2; ++pass) {
+        long start = System.nanoTime();
+        for (int i = 0; i < misses; ++i) {
+          pid.pid = size + pass * misses + i;
+          bufmgr.pinPage(pid, pg, PIN_NOOP);
+          bufmgr.unpinPage(pid, UNPIN_CLEAN);
+        }
+        elapsed = System.nanoTime() - start;
+      }
+      System.out.println(size + "\t" + (elapsed / misses));
+    }
+    System.out.println(seperator);
+
+  } // protected void bench2()
+
+  /**
+   * Share of evictions that still write their victim in the foreground,
+   * with and without the background page cleaner, on a write-heavy mix.
+   */
+  protected void bench3() {
+
+    System.out.print("\n  Bench 3 measures dirty evictions with and without the page cleaner\n");
+
+    int numPages = BUF_SIZE * 3;
+    int ops = 200000;
+    PageId first = allocRun(numPages);
+    Page pg = new Page();
+    PageId pid = new PageId();
+
+    String seperator = "--------------------------------------";
+    System.out.println(seperator);
+    System.out.println("Cleaner\tEvicts\tDirty\tCleaned\tus/op");
+    System.out.println(seperator);
+    for (int withCleaner = 0; withCleaner < 2; ++withCleaner) {
+
+      Minibase.BufferManager.flushAllFrames();
+      BufMgr bufmgr = new BufMgr(BUF_SIZE);
+      Minibase.BufferManager = bufmgr;
+      if (withCleaner == 1)
+        bufmgr.startPageCleaner(0.1, 100000);
+      initRandom();
+
+      long start = System.nanoTime();
+      for (int i = 0; i < ops; ++i) {
+        // four out of five accesses go to a hot fifth of the pages
+        int range = (random.nextInt(5) == 0) ? numPages : numPages / 5;
+        pid.pid = first.pid + random.nextInt(range);
+        bufmgr.pinPage(pid, pg, PIN_DISKIO);
+        boolean dirty = random.nextInt(10) < 3;
+        if (dirty)
+          pg.setIntValue(i, 0);
+        bufmgr.unpinPage(pid, dirty);
+
+        // short pauses stand in for the work a real caller does between
+        // pins, and leave the cleaner a CPU to run on
+        if (i % 32 == 0)
+          LockSupport.parkNanos(20000);
+      }
+      long elapsed = System.nanoTime() - start;
+      bufmgr.stopPageCleaner();
+
+      System.out.print((withCleaner == 1) ? "on" : "off");
+      System.out.print("\t" + bufmgr.getNumEvictions());
+      System.out.print("\t" + ratio(bufmgr.getNumDirtyEvictions(), bufmgr.getNumEvictions()));
+      System.out.print("\t" + bufmgr.getNumCleanerWrites());
+      System.out.print("\t" + String.format("%.2f", elapsed / 1000.0 / ops));
+      System.out.println();
+    }
+    System.out.println(seperator);
+
+  } // protected void bench3()
+
+  /**
+   * Sequential scans with and without read-ahead.  Demand reads are the
+   * reads a pin had to wait for; the rest were issued by the prefetcher.
+   */
+  protected void bench4() {
+
+    System.out.print("\n  Bench 4 scans sequentially with and without read-ahead\n");
+
+    int numPages = BUF_SIZE * 20;
+    int passes = 5;
+    PageId first = allocRun(numPages);
+    Page pg = new Page();
+    PageId pid = new PageId();
+
+    String seperator = "--------------------------------------";
+    System.out.println(seperator);
+    System.out.println("Ahead\tDemand\tAhead\tUsed\tWasted\tus/page");
+    System.out.println(seperator);
+    for (int withReadAhead = 0; withReadAhead < 2; ++withReadAhead) {
+
+      Minibase.BufferManager.flushAllFrames();
+      BufMgr bufmgr = new BufMgr(BUF_SIZE);
+      Minibase.BufferManager = bufmgr;
+      if (withReadAhead == 1)
+        bufmgr.startReadAhead(32);
+
+      int reads = Minibase.DiskManager.getReadCount();
+      long start = System.nanoTime();
+      for (int pass = 0; pass < passes; ++pass) {
+        for (pid.pid = first.pid; pid.pid < first.pid + numPages; pid.pid = pid.pid + 1) {
+          bufmgr.pinPage(pid, pg, PIN_DISKIO);
+          bufmgr.unpinPage(pid, UNPIN_CLEAN);
+        }
+      }
+      long elapsed = System.nanoTime() - start;
+      bufmgr.stopReadAhead();
+      reads = Minibase.DiskManager.getReadCount() - reads;
+
+      System.out.print((withReadAhead == 1) ? "on" : "off");
+      System.out.print("\t" + (reads - bufmgr.getNumPrefetches()));
+      System.out.print("\t" + bufmgr.getNumPrefetches());
+      System.out.print("\t" + bufmgr.getNumPrefetchHits());
+      System.out.print("\t" + bufmgr.getNumPrefetchWasted());
+      System.out.print("\t" + String.format("%.2f", elapsed / 1000.0 / (passes * numPages)));
+      System.out.println();
+    }
+    System.out.println(seperator);
+
+  } // protected void bench4()
+
+  /**
+   * Batches of random pages from a small region, pinned one at a time, in
+   * one pinPages call, and prefetched before being pinned one at a time.
+   */
+  protected void bench5() {
+
+    System.out.print("\n  Bench 5 pins batches of pages one by one and in one call\n");
+
+    int numPages = BUF_SIZE * 20;
+    int batchSize = BUF_SIZE / 4;
+    int region = batchSize * 4;
+    int batches = 2000;
+    PageId first = allocRun(numPages);
+    Page pg = new Page();
+    String[] modes = { "pinPage", "pinPages", "prefetch" };
+
+    String seperator = "--------------------------------------";
+    System.out.println(seperator);
+    System.out.println("Mode\t\tReads\tAhead\tWasted\tus/page");
+    System.out.println(seperator);
+    for (int mode = 0; mode < modes.length; ++mode) {
+
+      Minibase.BufferManager.flushAllFrames();
+      BufMgr bufmgr = new BufMgr(BUF_SIZE);
+      Minibase.BufferManager = bufmgr;
+      initRandom();
+
+      // the batch to pin now, and the next one, which prefetch mode reads
+      // in the background meanwhile
+      PageId[] batch = new PageId[batchSize];
+      PageId[] next = new PageId[batchSize];
+      Page[] pages = new Page[batchSize];
+      for (int i = 0; i < batchSize; ++i) {
+        batch[i] = new PageId();
+        next[i] = new PageId();
+        pages[i] = new Page();
+      }
+      int base = first.pid + random.nextInt(numPages - region);
+      for (int i = 0; i < batchSize; ++i)
+        next[i].pid = base + random.nextInt(region);
+
+      int reads = Minibase.DiskManager.getReadCount();
+      long start = System.nanoTime();
+      for (int b = 0; b < batches; ++b) {
+        PageId[] swap = batch;
+        batch = next;
+        next = swap;
+        base = first.pid + random.nextInt(numPages - region);
+        for (int i = 0; i < batchSize; ++i)
+          next[i].pid = base + random.nextInt(region);
+
+        if (mode == 1) {
+          bufmgr.pinPages(batch, pages);
+        } else {
+          if (mode == 2)
+            bufmgr.prefetch(next);
+          for (int i = 0; i < batchSize; ++i)
+            bufmgr.pinPage(batch[i], pages[i], PIN_DISKIO);
+        }
+        for (int i = 0; i < batchSize; ++i)
+          bufmgr.unpinPage(batch[i], UNPIN_CLEAN);
+      }
+      long elapsed = System.nanoTime() - start;
+      bufmgr.cancelPrefetches();
+      reads = Minibase.DiskManager.getReadCount() - reads;
+
+      System.out.print(modes[mode] + "\t");
+      System.out.print("\t" + reads);
+      System.out.print("\t" + bufmgr.getNumPrefetches());
+      System.out.print("\t" + bufmgr.getNumPrefetchWasted());
+      System.out.print("\t" + String.format("%.2f", elapsed / 1000.0 / (batches * batchSize)));
+      System.out.println();
+    }
+    System.out.println(seperator);
+
+  } // protected void bench5()
+
+  /**
+   * Checkpoint cost: writing every dirty frame with one flushPage call per
+   * page in random order, against one sorted, coalesced flushAllFrames.
+   */
+  protected void bench6() {
+
+    System.out.print("\n  Bench 6 flushes a dirty pool page by page and in sorted runs\n");
+
+    int frames = BUF_SIZE * 10;
+    int region = frames * 2;
+    int rounds = 20;
+    PageId first = Minibase.DiskManager.allocate_page(region);
+    Page pg = new Page();
+    String[] layouts = { "random", "sequential" };
+
+    String seperator = "--------------------------------------";
+    System.out.println(seperator);
+    System.out.println("Dirty\t\tFlush\tWrites\tRuns\tms");
+    System.out.println(seperator);
+    for (String layout : layouts) {
+
+      // the dirty pages: a random half of the region, or its first half
+      initRandom();
+      PageId[] dirty = new PageId[frames];
+      int[] order = new int[region];
+      for (int i = 0; i < region; ++i)
+        order[i] = i;
+      for (int i = 0; i < frames; ++i) {
+        int j = (layout.equals("random")) ? i + random.nextInt(region - i) : i;
+        int swap = order[i];
+        order[i] = order[j];
+        order[j] = swap;
+        dirty[i] = new PageId(first.pid + order[i]);
+      }
+
+      for (int sorted = 0; sorted < 2; ++sorted) {
+
+        BufMgr bufmgr = new BufMgr(frames);
+        int writes = Minibase.DiskManager.getWriteCount();
+        long runs = 0, elapsed = 0;
+        for (int round = 0; round < rounds; ++round) {
+
+          for (PageId pid : dirty) {
+            bufmgr.pinPage(pid, pg, PIN_NOOP);
+            bufmgr.unpinPage(pid, UNPIN_DIRTY);
+          }
+          long start = System.nanoTime();
+          if (sorted == 1) {
+            long before = bufmgr.getNumFlushRuns();
+            bufmgr.flushAllFrames();
+            runs += bufmgr.getNumFlushRuns() - before;
+          } else {
+            for (PageId pid : dirty)
+              bufmgr.flushPage(pid);
+            runs += frames;
+          }
+          elapsed += System.nanoTime() - start;
+        }
+        writes = Minibase.DiskManager.getWriteCount() - writes;
+
+        System.out.print(layout + "\t" + ((sorted == 1) ? "sorted" : "paged"));
+        System.out.print("\t" + writes / rounds);
+        System.out.print("\t" + runs / rounds);
+        System.out.print("\t" + String.format("%.2f", elapsed / 1e6 / rounds));
+        System.out.println();
+      }
+    }
+    System.out.println(seperator);
+    Minibase.DiskManager.deallocate_page(first, region);
+
+  } // protected void bench6()
+
+  /**
+   * Time and heap allocation per miss for each way of filling a frame.
+   * Every pin misses: the pages cycle through a region ten times the pool.
+   */
+  protected void bench7() {
+
+    System.out.print("\n  Bench 7 measures the cost of a miss for each pin mode\n");
+
+    int region = BUF_SIZE * 10;
+    int misses = 200000;
+    PageId first = Minibase.DiskManager.allocate_page(region);
+    Page pg = new Page();
+    PageId pid = new PageId();
+    String[] names = { "DISKIO", "MEMCPY", "NOOP" };
+    int[] modes = { PIN_DISKIO, PIN_MEMCPY, PIN_NOOP };
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long self = Thread.currentThread().getId();
+
+    String seperator = "--------------------------------------";
+    System.out.println(seperator);
+    System.out.println("Mode\tns/miss\tbytes/miss");
+    System.out.println(seperator);
+    for (int m = 0; m < modes.length; ++m) {
+
+      BufMgr bufmgr = new BufMgr(BUF_SIZE);
+      Page src = new Page();
+
+      // two passes; the first one warms up the JIT
+      long elapsed = 0, allocated = 0;
+      for (int pass = 0; pass < 2; ++pass) {
+        long bytes = threads.getThreadAllocatedBytes(self);
+        long start = System.nanoTime();
+        for (int i = 0; i < misses; ++i) {
+          pid.pid = first.pid + i % region;
+          if (modes[m] == PIN_MEMCPY)
+            pg.setPage(src);
+          bufmgr.pinPage(pid, pg, modes[m]);
+          bufmgr.unpinPage(pid, UNPIN_CLEAN);
+        }
+        elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(self) - bytes;
+      }
+      System.out.println(names[m] + "\t" + (elapsed / misses) + "\t" + (allocated / misses));
+    }
+    System.out.println(seperator);
+    Minibase.DiskManager.deallocate_page(first, region);
+
+  } // protected void bench7()
+
+  /**
+   * The page table against the ConcurrentHashMap it replaced: lookup time
+   * on the hit path, and heap held per mapped page.
+   */
+  protected void bench8() {
+
+    System.out.print("\n  Bench 8 compares the page table with a ConcurrentHashMap\n");
+
+    int[] sizes = { 1000, 100000, 1000000 };
+    int lookups = 5000000;
+
+    String seperator = "--------------------------------------";
+    System.out.println(seperator);
+    System.out.println("Pages\tTable\tns/get\tbytes/page");
+    System.out.println(seperator);
+    for (int size : sizes) {
+
+      // random lookups of mapped pages, drawn up front
+      initRandom();
+      PageId[] keys = new PageId[lookups];
+      for (int i = 0; i < lookups; ++i)
+        keys[i] = new PageId(random.nextInt(size));
+
+      for (int impl = 0; impl < 2; ++impl) {
+
+        long heap = usedHeap();
+        PageTable table = null;
+        ConcurrentHashMap<PageId, Integer> map = null;
+        if (impl == 0) {
+          table = new PageTable(size);
+          for (int pid = 0; pid < size; ++pid)
+            table.put(pid, pid);
+        } else {
+          map = new ConcurrentHashMap<PageId, Integer>();
+          for (int pid = 0; pid < size; ++pid)
+            map.put(new PageId(pid), pid);
+        }
+        heap = usedHeap() - heap;
+
+        // two passes; the first one warms up the JIT
+        long elapsed = 0, sum = 0;
+        for (int pass = 0; pass < 2; ++pass) {
+          long start = System.nanoTime();
+          if (impl == 0) {
+            for (PageId pid : keys)
+              sum += table.get(pid.pid);
+          } else {
+            for (PageId pid : keys)
+              sum += map.get(pid);
+          }
+          elapsed = System.nanoTime() - start;
+        }
+
+        System.out.print(size + "\t" + ((impl == 0) ? "PageTbl" : "CHM"));
+        System.out.print("\t" + String.format("%.1f", (double) elapsed / lookups));
+        System.out.print("\t" + heap / size);
+        // use the sum, so the lookups cannot be optimized away
+        System.out.println((sum == 42) ? " " : "");
+      }
+    }
+    System.out.println(seperator);
+
+  } // protected void bench8()
+
+  /**
+   * Reading a few bytes of a hot page: pin and unpin around the read, or
+   * read optimistically and validate.
+   */
+  protected void bench9() {
+
+    System.out.print("\n  Bench 9 reads a hot page with pins and optimistically\n");
+
+    int reads = 10000000;
+    PageId first = allocRun(1);
+    Page pg = new Page();
+    BufMgr bufmgr = Minibase.BufferManager;
+    bufmgr.pinPage(first, pg, PIN_DISKIO);
+    bufmgr.unpinPage(first, UNPIN_CLEAN);
+
+    String seperator = "--------------------------------------";
+    System.out.println(seperator);
+    System.out.println("Read\t\tns/read\tretries");
+    System.out.println(seperator);
+    for (int mode = 0; mode < 2; ++mode) {
+
+      // two passes; the first one warms up the JIT
+      long elapsed = 0, sum = 0, retries = 0;
+      for (int pass = 0; pass < 2; ++pass) {
+        retries = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < reads; ++i) {
+          if (mode == 0) {
+            bufmgr.pinPage(first, pg, PIN_DISKIO);
+            sum += pg.getIntValue(0);
+            bufmgr.unpinPage(first, UNPIN_CLEAN);
+          } else {
+            long stamp = bufmgr.tryOptimisticRead(first, pg);
+            int value = pg.getIntValue(0);
+            if (bufmgr.validate(stamp)) {
+              sum += value;
+            } else {
+              ++retries;
+              --i;
+            }
+          }
+        }
+        elapsed = System.nanoTime() - start;
+      }
+
+      System.out.print((mode == 0) ? "pin/unpin" : "optimistic");
+      System.out.print("\t" + String.format("%.1f", (double) elapsed / reads));
+      System.out.print("\t" + retries);
+      // use the sum, so the reads cannot be optimized away
+      System.out.println((sum == 42) ? " " : "");
+    }
+    System.out.println(seperator);
+
+  } // protected void bench9()
+
+  /**
+   * The pin/unpin cycle on a resident page, unpinning by page id or by the
+   * frame handle the pin returned, with time and heap allocation per cycle.
+   */
+  protected void bench10() {
+
+    System.out.print("\n  Bench 10 pins a resident page and unpins it by id and by handle\n");
+
+    int cycles = 10000000;
+    PageId first = allocRun(1);
+    Page pg = new Page();
+    BufMgr bufmgr = Minibase.BufferManager;
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long self = Thread.currentThread().getId();
+    bufmgr.pinPage(first, pg, PIN_DISKIO);
+    bufmgr.unpinPage(first, UNPIN_CLEAN);
+
+    String seperator = "--------------------------------------";
+    System.out.println(seperator);
+    System.out.println("Unpin\tns/cycle\tbytes/cycle");
+    System.out.println(seperator);
+    for (int mode = 0; mode < 2; ++mode) {
+
+      // two passes; the first one warms up the JIT
+      long elapsed = 0, allocated = 0;
+      for (int pass = 0; pass < 2; ++pass) {
+        long bytes = threads.getThreadAllocatedBytes(self);
+        long start = System.nanoTime();
+        for (int i = 0; i < cycles; ++i) {
+          if (mode == 0) {
+            bufmgr.pinPage(first, pg, PIN_DISKIO);
+            bufmgr.unpinPage(first, UNPIN_CLEAN);
+          } else {
+            int handle = bufmgr.pinFrame(first, pg, PIN_DISKIO);
+            bufmgr.unpinFrame(handle, UNPIN_CLEAN);
+          }
+        }
+        elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(self) - bytes;
+      }
+
+      System.out.print((mode == 0) ? "by id" : "handle");
+      System.out.print("\t" + String.format("%.1f", (double) elapsed / cycles));
+      System.out.print("\t\t" + String.format("%.2f", (double) allocated / cycles));
+      System.out.println();
+    }
+    System.out.println(seperator);
+
+  } // protected void bench10()
+
+  /**
+   * Pin/unpin throughput of a sharded pool against a single one, from 1 to
+   * 64 threads, on a working set twice the size of the pool, so about half
+   * the pins miss.  Scaling past one thread needs that many cores.
+   */
+  protected void bench11() {
+
+    System.out.print("\n  Bench 11 compares pin throughput of a sharded and a single pool\n");
+    System.out.println("  (" + Runtime.getRuntime().availableProcessors() + " processors)");
+
+    int[] threadCounts = { 1, 2, 4, 8, 16, 32, 64 };
+    int[] shardCounts = { 1, 4, 16 };
+    int numframes = 256;
+    int numPages = numframes * 2;
+    long millis = 250;
+    PageId first = allocRun(numPages);
+    BufMgr saved = Minibase.BufferManager;
+
+    String seperator = "--------------------------------------";
+    System.out.println(seperator);
+    System.out.print("Threads");
+    for (int shards : shardCounts)
+      System.out.print("\t" + shards + " shd");
+    System.out.println("\t(kpins/s)");
+    System.out.println(seperator);
+
+    // one untimed round warms up the JIT
+    for (int shards : shardCounts)
+      pinThroughput(new BufMgr(numframes, "Clock", shards), first, numPages, 4, millis);
+
+    for (int threads : threadCounts) {
+      System.out.print(threads);
+      for (int shards : shardCounts) {
+        BufMgr bufmgr = new BufMgr(numframes, "Clock", shards);
+        double rate = pinThroughput(bufmgr, first, numPages, threads, millis);
+        System.out.print("\t" + String.format("%.0f", rate / 1000));
+      }
+      System.out.println();
+    }
+    System.out.println(seperator);
+    Minibase.BufferManager = saved;
+
+  } // protected void bench11()
+
+  /**
+   * Runs threads that pin and unpin random pages of a run for a while.
+   *
+   * @return pins per second, over all threads
+   */
+  protected double pinThroughput(BufMgr bufmgr, PageId first, int numPages,
+      int threads, long millis) {
+
+    Minibase.BufferManager = bufmgr;
+    AtomicBoolean stop = new AtomicBoolean();
+    long [] counts = new long[threads];
+    Thread [] workers = new Thread[threads];
+    for (int t = 0; t < threads; ++t) {
+      final int me = t;
+      workers[t] = new Thread(() -> {
+        Random rnd = new Random(me);
+        Page pg = new Page();
+        PageId pid = new PageId();
+        long n = 0;
+        while (!stop.get()) {
+          pid.pid = first.pid + rnd.nextInt(numPages);
+          int handle = bufmgr.pinFrame(pid, pg, PIN_DISKIO);
+          bufmgr.unpinFrame(handle, UNPIN_CLEAN);
+          ++n;
+        }
+        counts[me] = n;
+      });
+    }
+
+    long start = System.nanoTime();
+    for (Thread w : workers)
+      w.start();
+    LockSupport.parkNanos(millis * 1000000);
+    stop.set(true);
+    long total = 0;
+    try {
+      for (int t = 0; t < threads; ++t) {
+        workers[t].join();
+        total += counts[t];
+      }
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+    return total * 1e9 / (System.nanoTime() - start);
+  }
+
+  /**
+   * Bench 1's mix of lookups and scans, with the scans going through the
+   * shared pool or through a private ring of frames.
+   */
+  protected void bench12() {
+
+    System.out.print("\n  Bench 12 runs bench 1's scans through a ring of frames\n");
+
+    int hotPages = BUF_SIZE / 2;
+    int scanPages = BUF_SIZE * 10;
+    int rounds = 50;
+    int ringSize = 8;
+    PageId hot = allocRun(hotPages);
+    PageId scan = allocRun(scanPages);
+    Page pg = new Page();
+    PageId pid = new PageId();
+
+    String seperator = "--------------------------------------";
+    System.out.println(seperator);
+    System.out.println("\tScans	Lookup	Scan	(hit ratio)");
+    System.out.println(seperator);
+    for (String policy : POLICIES) {
+      for (int mode = 0; mode < 2; ++mode) {
+
+        Minibase.BufferManager.flushAllFrames();
+        Minibase.BufferManager = new BufMgr(BUF_SIZE, policy);
+        BufferRing ring = (mode == 0) ? null : Minibase.BufferManager.newRing(ringSize);
+        initRandom();
+
+        long lookups = 0, lookupReads = 0, scans = 0, scanReads = 0;
+        for (int round = 0; round < rounds; ++round) {
+
+          int before = Minibase.DiskManager.getReadCount();
+          for (int i = 0; i < hotPages * 4; ++i) {
+            pid.pid = hot.pid + random.nextInt(hotPages);
+            touch(pid, pg);
+            touch(pid, pg);
+            lookups += 2;
+          }
+          lookupReads += Minibase.DiskManager.getReadCount() - before;
+
+          before = Minibase.DiskManager.getReadCount();
+          int start = (round * scanPages / 3) % scanPages;
+          for (int i = 0; i < scanPages / 3; ++i) {
+            pid.pid = scan.pid + (start + i) % scanPages;
+            Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO, ring);
+            Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+            ++scans;
+          }
+          scanReads += Minibase.DiskManager.getReadCount() - before;
+        }
+        if (ring != null)
+          ring.close();
+
+        System.out.print(policy + "\t" + ((mode == 0) ? "shared" : "ring " + ringSize));
+        System.out.print("\t" + ratio(lookups - lookupReads, lookups));
+        System.out.print("\t" + ratio(scans - scanReads, scans));
+        System.out.println();
+      }
+    }
+    System.out.println(seperator);
+
+  } // protected void bench12()
+
+  /**
+   * Heap in use after a full collection, in bytes.
+   */
+  protected static long usedHeap() {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; ++i)
+      System.gc();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  /**
+   * Formats a hit ratio as a percentage.
+   */
+  protected static String ratio(long hits, long total) {
+    return String.format("%.1f%%", 100.0 * hits / total);
+  }
+
+} // class BMBench extends TestDriver
@@ -1,10 +1,30 @@
 package tests;
 
+import bufmgr.BufMgr;
+import bufmgr.BufMgrStats;
+import bufmgr.BufferRing;
+import bufmgr.PageTable;
+import diskmgr.DiskMgr;
 import global.Convert;
+import global.LatencyHistogram;
 import global.Minibase;
 import global.Page;
 import global.PageId;
 
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 /**
  * Test suite for the bufmgr layer.
  */
@@ -29,6 +49,25 @@ class BMTest extends TestDriver {
     status &= bmt.test1();
     status &= bmt.test2();
     status &= bmt.test3();
+    status &= bmt.test4();
+    status &= bmt.test5();
+    status &= bmt.test6();
+    status &= bmt.test7();
+    status &= bmt.test8();
+    status &= bmt.test9();
+    status &= bmt.test10();
+    status &= bmt.test11();
+    status &= bmt.test12();
+    status &= bmt.test13();
+    status &= bmt.test14();
+    status &= bmt.test15();
+    status &= bmt.test16();
+    status &= bmt.test17();
+    status &= bmt.test18();
+    status &= bmt.test19();
+    status &= bmt.test20();
+    status &= bmt.test21();
+    status &= bmt.test22();
 
     // display the final results
     System.out.println();
@@ -405,4 +444,1921 @@ class BMTest extends TestDriver {
 
   } // protected boolean test3 ()
 
+  /**
+   * 
+   */
+  protected boolean test4() {
+
+    System.out.print("\n  Test 4 pins and unpins pages from many threads at once\n");
+
+    final int numThreads = 8;
+    final int opsPerThread = 20000;
+    final int numPages = 2 * Minibase.BufferManager.getNumFrames();
+    Page pg = new Page();
+    PageId pid = new PageId();
+    boolean status4 = PASS;
+
+    // allocate a run of pages and tag each one, as in test 1
+    System.out.print("  - Allocate and tag twice as many pages as there are frames\n");
+    final PageId firstPid;
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_CLEAN);
+      for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+        Minibase.BufferManager.pinPage(pid, pg, PIN_NOOP);
+        Convert.setIntValue(pid.pid + 99999, 0, pg.getData());
+        Convert.setIntValue(0, 4, pg.getData());
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      }
+    } catch (Exception e) {
+      System.err.print("*** Could not set up the pages for the stress test\n");
+      e.printStackTrace();
+      return false;
+    }
+
+    // each thread owns the pages congruent to its number and bumps a counter
+    // on them; a lost pin or a page mapped into two frames shows up either as
+    // a wrong tag or as a lost increment
+    System.out.print("  - Pin, check, update and unpin from " + numThreads + " threads\n");
+    final AtomicInteger errors = new AtomicInteger();
+    final int[][] bumps = new int[numThreads][numPages];
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; ++t) {
+      final int me = t;
+      threads[t] = new Thread() {
+        public void run() {
+          Random rand = new Random(74 + me);
+          Page page = new Page();
+          PageId id = new PageId();
+          for (int op = 0; op < opsPerThread; ++op) {
+            // half of the pins go to a small hot set so most of them are hits
+            int index = (rand.nextBoolean()) ? rand.nextInt(numThreads * 2)
+                : rand.nextInt(numPages);
+            id.pid = firstPid.pid + index;
+            try {
+              Minibase.BufferManager.pinPage(id, page, PIN_DISKIO);
+            } catch (IllegalStateException exc) {
+              continue; // every frame momentarily pinned; try another page
+            }
+            boolean dirty = UNPIN_CLEAN;
+            if (Convert.getIntValue(0, page.getData()) != id.pid + 99999) {
+              errors.incrementAndGet();
+            } else if (index % numThreads == me) {
+              Convert.setIntValue(Convert.getIntValue(4, page.getData()) + 1, 4,
+                  page.getData());
+              bumps[me][index]++;
+              dirty = UNPIN_DIRTY;
+            }
+            Minibase.BufferManager.unpinPage(id, dirty);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (int t = 0; t < numThreads; ++t) {
+      try {
+        threads[t].join();
+      } catch (InterruptedException e) {
+        status4 = FAIL;
+      }
+    }
+
+    if (errors.get() != 0) {
+      status4 = FAIL;
+      System.err.print("*** Read wrong data back " + errors.get() + " times\n");
+    }
+    if (Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager.getNumFrames()) {
+      status4 = FAIL;
+      System.err.print("*** Some frames are still pinned\n");
+    }
+
+    // the occupancy counters must agree with what the threads left behind
+    Minibase.BufferManager.flushAllFrames();
+    if (Minibase.BufferManager.getNumPinned() != 0
+        || Minibase.BufferManager.getNumDirty() != 0
+        || Minibase.BufferManager.getNumResident() != Minibase.BufferManager.getNumFrames()) {
+      status4 = FAIL;
+      System.err.print("*** Occupancy counters are off: "
+          + Minibase.BufferManager.getNumPinned() + " pinned, "
+          + Minibase.BufferManager.getNumDirty() + " dirty, "
+          + Minibase.BufferManager.getNumResident() + " resident\n");
+    }
+
+    // every increment must have survived eviction and reload
+    System.out.print("  - Check the counters and free the pages\n");
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      try {
+        int index = pid.pid - firstPid.pid;
+        Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+        if (status4 == PASS
+            && Convert.getIntValue(4, pg.getData()) != bumps[index % numThreads][index]) {
+          status4 = FAIL;
+          System.err.print("*** Lost updates on page " + pid.pid + "\n");
+        }
+        Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+        Minibase.BufferManager.freePage(pid);
+      } catch (Exception e) {
+        status4 = FAIL;
+        System.err.print("*** Error checking or freeing page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status4 == PASS)
+      System.out.print("  Test 4 completed successfully.\n");
+
+    return status4;
+
+  } // protected boolean test4 ()
+
+  /**
+   * 
+   */
+  protected boolean test5() {
+
+    System.out.print("\n  Test 5 repeats tests 1, 3 and 4 with each replacement policy\n");
+
+    boolean status5 = PASS;
+    String[] policies = { "LRU", "LRUK", "GClock", "ARC", "Clock" };
+    for (int i = 0; status5 == PASS && i < policies.length; ++i) {
+
+      // swap in a fresh buffer manager; the disk manager keeps going
+      System.out.print("  - Switch to " + policies[i] + "\n");
+      swapPool(new BufMgr(BUF_SIZE, policies[i]));
+
+      status5 &= test1();
+      status5 &= test3();
+      status5 &= test4();
+    }
+
+    if (status5 == PASS)
+      System.out.print("  Test 5 completed successfully.\n");
+
+    return status5;
+
+  } // protected boolean test5 ()
+
+  /**
+   * 
+   */
+  protected boolean test6() {
+
+    System.out.print("\n  Test 6 scans pages with read-ahead turned on\n");
+
+    int numPages = 3 * Minibase.BufferManager.getNumFrames();
+    Page pg = new Page();
+    PageId pid = new PageId();
+    PageId firstPid = new PageId();
+    boolean status6 = PASS;
+
+    System.out.print("  - Allocate and tag three times as many pages as there are frames\n");
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_CLEAN);
+      for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+        Minibase.BufferManager.pinPage(pid, pg, PIN_NOOP);
+        Convert.setIntValue(pid.pid + 99999, 0, pg.getData());
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      }
+      Minibase.BufferManager.flushAllFrames();
+    } catch (Exception e) {
+      System.err.print("*** Could not set up the pages for the scan\n");
+      e.printStackTrace();
+      return false;
+    }
+
+    // scan twice, so the second pass runs into pages left over from the first
+    System.out.print("  - Scan them twice and check every page\n");
+    Minibase.BufferManager.startReadAhead(32);
+    for (int pass = 0; status6 == PASS && pass < 2; ++pass) {
+      for (pid.pid = firstPid.pid; status6 == PASS && pid.pid < firstPid.pid + numPages;
+          pid.pid = pid.pid + 1) {
+        try {
+          Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+          if (Convert.getIntValue(0, pg.getData()) != pid.pid + 99999) {
+            status6 = FAIL;
+            System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+          }
+          Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+        } catch (Exception e) {
+          status6 = FAIL;
+          System.err.print("*** Could not scan page " + pid.pid + "\n");
+          e.printStackTrace();
+        }
+      }
+    }
+    Minibase.BufferManager.stopReadAhead();
+
+    if (Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager.getNumFrames()) {
+      status6 = FAIL;
+      System.err.print("*** Read-ahead left frames pinned\n");
+    }
+    if (Minibase.BufferManager.getNumPrefetchHits()
+        + Minibase.BufferManager.getNumPrefetchWasted()
+        > Minibase.BufferManager.getNumPrefetches()) {
+      status6 = FAIL;
+      System.err.print("*** Prefetch counters are off\n");
+    }
+
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      try {
+        Minibase.BufferManager.freePage(pid);
+      } catch (Exception e) {
+        status6 = FAIL;
+        System.err.print("*** Error freeing page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status6 == PASS)
+      System.out.print("  Test 6 completed successfully.\n");
+
+    return status6;
+
+  } // protected boolean test6 ()
+
+  /**
+   * 
+   */
+  protected boolean test7() {
+
+    System.out.print("\n  Test 7 pins and prefetches batches of pages\n");
+
+    int numPages = Minibase.BufferManager.getNumFrames() / 2;
+    Page pg = new Page();
+    PageId pid = new PageId();
+    PageId firstPid = new PageId();
+    boolean status7 = PASS;
+
+    System.out.print("  - Allocate and tag half as many pages as there are frames\n");
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_CLEAN);
+      for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+        Minibase.BufferManager.pinPage(pid, pg, PIN_NOOP);
+        Convert.setIntValue(pid.pid + 99999, 0, pg.getData());
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      }
+      swapPool(new BufMgr(BUF_SIZE));
+    } catch (Exception e) {
+      System.err.print("*** Could not set up the pages\n");
+      e.printStackTrace();
+      return false;
+    }
+
+    String[] policies = { "LRU", "LRUK", "GClock", "ARC", "Clock" };
+    PageId[] batch;
+    Page[] pages;
+    for (int p = 0; status7 == PASS && p < policies.length; ++p) {
+
+      // fill a fresh pool with clean pages, so that every miss has to evict
+      System.out.print("  - Fill the pool under " + policies[p] + " with clean pages\n");
+      swapPool(new BufMgr(BUF_SIZE, policies[p]));
+      int numFill = Minibase.BufferManager.getNumFrames();
+      PageId fillPid = new PageId();
+      try {
+        fillPid = Minibase.BufferManager.newPage(pg, numFill);
+        Minibase.BufferManager.unpinPage(fillPid, UNPIN_CLEAN);
+        for (pid.pid = fillPid.pid; pid.pid < fillPid.pid + numFill; pid.pid = pid.pid + 1) {
+          Minibase.BufferManager.pinPage(pid, pg, PIN_NOOP);
+          Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+        }
+      } catch (Exception e) {
+        System.err.print("*** Could not fill the pool\n");
+        e.printStackTrace();
+        return false;
+      }
+
+      // every other page, backwards, with the first page twice and the
+      // second page already resident
+      System.out.print("  - Pin a batch in one call and check every page\n");
+      batch = new PageId[numPages / 2 + 1];
+      pages = new Page[batch.length];
+      for (int i = 0; i < batch.length - 1; ++i)
+        batch[i] = new PageId(firstPid.pid + numPages - 1 - 2 * i);
+      batch[batch.length - 1] = new PageId(batch[0].pid);
+      for (int i = 0; i < pages.length; ++i)
+        pages[i] = new Page();
+      try {
+        Minibase.BufferManager.pinPage(batch[1], pg, PIN_DISKIO);
+        Minibase.BufferManager.unpinPage(batch[1], UNPIN_CLEAN);
+        int reads = Minibase.DiskManager.getReadCount();
+        Minibase.BufferManager.pinPages(batch, pages);
+        if (Minibase.DiskManager.getReadCount() - reads != batch.length - 2) {
+          status7 = FAIL;
+          System.err.print("*** Read " + (Minibase.DiskManager.getReadCount() - reads)
+              + " pages, expected " + (batch.length - 2) + "\n");
+        }
+        for (int i = 0; i < batch.length; ++i) {
+          if (Convert.getIntValue(0, pages[i].getData()) != batch[i].pid + 99999) {
+            status7 = FAIL;
+            System.err.print("*** Read wrong data back from page " + batch[i].pid + "\n");
+          }
+          Minibase.BufferManager.unpinPage(batch[i], UNPIN_CLEAN);
+        }
+      } catch (Exception e) {
+        status7 = FAIL;
+        System.err.print("*** Could not pin the batch\n");
+        e.printStackTrace();
+      }
+      if (Minibase.BufferManager.getNumPinned() != 0) {
+        status7 = FAIL;
+        System.err.print("*** The batch left frames pinned\n");
+      }
+
+      System.out.print("  - Try to pin more pages than there are frames\n");
+      batch = new PageId[Minibase.BufferManager.getNumFrames() + 1];
+      pages = new Page[batch.length];
+      for (int i = 0; i < batch.length; ++i) {
+        batch[i] = new PageId(firstPid.pid + i);
+        pages[i] = new Page();
+      }
+      try {
+        Minibase.BufferManager.pinPages(batch, pages);
+        status7 = FAIL;
+        System.err.print("*** Pinned more pages than there are frames\n");
+      } catch (IllegalStateException e) {
+        System.out.print("   --> Failed as expected \n");
+      } catch (Exception e) {
+        status7 = FAIL;
+        System.err.print("*** Wrong exception for an oversized batch\n");
+        e.printStackTrace();
+      }
+      if (Minibase.BufferManager.getNumPinned() != 0) {
+        status7 = FAIL;
+        System.err.print("*** The failed batch left frames pinned\n");
+      }
+
+      System.out.print("  - Free the pages that filled the pool\n");
+      try {
+        for (pid.pid = fillPid.pid; pid.pid < fillPid.pid + numFill; pid.pid = pid.pid + 1)
+          Minibase.BufferManager.freePage(pid);
+      } catch (Exception e) {
+        status7 = FAIL;
+        System.err.print("*** Could not free the pages\n");
+        e.printStackTrace();
+      }
+    }
+
+    System.out.print("  - Prefetch every page, then pin them without reading\n");
+    swapPool(new BufMgr(BUF_SIZE));
+    batch = new PageId[numPages];
+    for (int i = 0; i < numPages; ++i)
+      batch[i] = new PageId(firstPid.pid + numPages - 1 - i);
+    Minibase.BufferManager.prefetch(batch);
+    long deadline = System.currentTimeMillis() + 10000;
+    while (Minibase.BufferManager.getNumPrefetches() < numPages
+        && System.currentTimeMillis() < deadline)
+      Thread.yield();
+    Minibase.BufferManager.cancelPrefetches();
+    int reads = Minibase.DiskManager.getReadCount();
+    for (pid.pid = firstPid.pid; status7 == PASS && pid.pid < firstPid.pid + numPages;
+        pid.pid = pid.pid + 1) {
+      try {
+        Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+        if (Convert.getIntValue(0, pg.getData()) != pid.pid + 99999) {
+          status7 = FAIL;
+          System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+        }
+        Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+      } catch (Exception e) {
+        status7 = FAIL;
+        System.err.print("*** Could not pin page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+    if (Minibase.DiskManager.getReadCount() != reads
+        || Minibase.BufferManager.getNumPrefetchHits() != numPages) {
+      status7 = FAIL;
+      System.err.print("*** Prefetched pages were not all hits\n");
+    }
+
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      try {
+        Minibase.BufferManager.freePage(pid);
+      } catch (Exception e) {
+        status7 = FAIL;
+        System.err.print("*** Error freeing page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status7 == PASS)
+      System.out.print("  Test 7 completed successfully.\n");
+
+    return status7;
+
+  } // protected boolean test7 ()
+
+  /**
+   * 
+   */
+  protected boolean test8() {
+
+    System.out.print("\n  Test 8 flushes ranges of pages in sorted runs\n");
+
+    int numPages = Minibase.BufferManager.getNumFrames() / 2;
+    Page pg = new Page();
+    PageId pid = new PageId();
+    PageId firstPid = new PageId();
+    boolean status8 = PASS;
+
+    // tag every page, then retag all but the fifth, in reverse order, so
+    // the dirty pages form two runs
+    System.out.print("  - Dirty a run of pages with one gap, backwards\n");
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_CLEAN);
+      for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+        Minibase.BufferManager.pinPage(pid, pg, PIN_NOOP);
+        Convert.setIntValue(pid.pid + 99999, 0, pg.getData());
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      }
+      Minibase.BufferManager.flushAllFrames();
+      for (pid.pid = firstPid.pid + numPages - 1; pid.pid >= firstPid.pid; pid.pid = pid.pid - 1) {
+        Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+        Convert.setIntValue(pid.pid + 77777, 0, pg.getData());
+        Minibase.BufferManager.unpinPage(pid, pid.pid != firstPid.pid + 4);
+      }
+    } catch (Exception e) {
+      System.err.print("*** Could not set up the pages\n");
+      e.printStackTrace();
+      return false;
+    }
+
+    System.out.print("  - Flush the first ten pages, then all of them\n");
+    try {
+      int writes = Minibase.DiskManager.getWriteCount();
+      long runs = Minibase.BufferManager.getNumFlushRuns();
+      int written = Minibase.BufferManager.flushPages(firstPid, 10);
+      if (written != 9 || Minibase.DiskManager.getWriteCount() - writes != 9
+          || Minibase.BufferManager.getNumFlushRuns() - runs != 2) {
+        status8 = FAIL;
+        System.err.print("*** Flushing ten pages wrote " + written + " pages in "
+            + (Minibase.BufferManager.getNumFlushRuns() - runs) + " runs, expected 9 in 2\n");
+      }
+      if (Minibase.BufferManager.flushPages(firstPid, 10) != 0) {
+        status8 = FAIL;
+        System.err.print("*** Flushed clean pages again\n");
+      }
+      runs = Minibase.BufferManager.getNumFlushRuns();
+      Minibase.BufferManager.flushAllFrames();
+      if (Minibase.BufferManager.getNumDirty() != 0
+          || Minibase.BufferManager.getNumFlushRuns() - runs != 1) {
+        status8 = FAIL;
+        System.err.print("*** The rest of the pages did not go out in one run\n");
+      }
+    } catch (Exception e) {
+      status8 = FAIL;
+      System.err.print("*** Could not flush the pages\n");
+      e.printStackTrace();
+    }
+
+    System.out.print("  - Read the pages back through a fresh buffer pool\n");
+    swapPool(new BufMgr(BUF_SIZE));
+    for (pid.pid = firstPid.pid; status8 == PASS && pid.pid < firstPid.pid + numPages;
+        pid.pid = pid.pid + 1) {
+      try {
+        Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+        int expected = pid.pid + ((pid.pid == firstPid.pid + 4) ? 99999 : 77777);
+        if (Convert.getIntValue(0, pg.getData()) != expected) {
+          status8 = FAIL;
+          System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+        }
+        Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+      } catch (Exception e) {
+        status8 = FAIL;
+        System.err.print("*** Could not pin page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      try {
+        Minibase.BufferManager.freePage(pid);
+      } catch (Exception e) {
+        status8 = FAIL;
+        System.err.print("*** Error freeing page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status8 == PASS)
+      System.out.print("  Test 8 completed successfully.\n");
+
+    return status8;
+
+  } // protected boolean test8 ()
+
+  /**
+   * 
+   */
+  protected boolean test9() {
+
+    System.out.print("\n  Test 9 churns the page table against a reference map\n");
+
+    final int maxEntries = 1000;
+    final PageTable table = new PageTable(maxEntries);
+    HashMap<Integer, Integer> reference = new HashMap<Integer, Integer>();
+    Random rand = new Random(74);
+    boolean status9 = PASS;
+
+    // pages 0 to 99 stay mapped throughout, so a reader must always find them
+    for (int pid = 0; pid < 100; ++pid) {
+      table.put(pid, pid);
+      reference.put(pid, pid);
+    }
+    final AtomicInteger lost = new AtomicInteger();
+    final AtomicBoolean done = new AtomicBoolean();
+    Thread reader = new Thread() {
+      public void run() {
+        Random rand = new Random(47);
+        while (!done.get()) {
+          int pid = rand.nextInt(100);
+          if (table.get(pid) != pid)
+            lost.incrementAndGet();
+        }
+      }
+    };
+
+    System.out.print("  - Add and remove random pages while another thread looks up fixed ones\n");
+    reader.start();
+    for (int i = 0; i < 1000000; ++i) {
+      int pid = 100 + rand.nextInt(maxEntries * 2);
+      if (reference.containsKey(pid)) {
+        if (table.remove(pid) != reference.remove(pid)) {
+          status9 = FAIL;
+          System.err.print("*** Removing page " + pid + " gave the wrong frame\n");
+          break;
+        }
+      } else if (reference.size() < maxEntries) {
+        table.put(pid, i % maxEntries);
+        reference.put(pid, i % maxEntries);
+      }
+    }
+    done.set(true);
+    try {
+      reader.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (lost.get() != 0) {
+      status9 = FAIL;
+      System.err.print("*** Concurrent lookups missed " + lost.get() + " mapped pages\n");
+    }
+
+    System.out.print("  - Compare every mapping with the reference\n");
+    if (table.size() != reference.size()) {
+      status9 = FAIL;
+      System.err.print("*** The table holds " + table.size() + " pages, expected "
+          + reference.size() + "\n");
+    }
+    for (int pid = 0; status9 == PASS && pid < 100 + maxEntries * 2; ++pid) {
+      Integer frameno = reference.get(pid);
+      if (table.get(pid) != ((frameno == null) ? -1 : frameno)) {
+        status9 = FAIL;
+        System.err.print("*** Page " + pid + " maps to the wrong frame\n");
+      }
+    }
+
+    if (status9 == PASS)
+      System.out.print("  Test 9 completed successfully.\n");
+
+    return status9;
+
+  } // protected boolean test9 ()
+
+  /**
+   * 
+   */
+  protected boolean test10() {
+
+    System.out.print("\n  Test 10 reads pages optimistically, without pins\n");
+
+    Page pg = new Page();
+    Page view = new Page();
+    PageId pid = new PageId();
+    boolean status10 = PASS;
+
+    System.out.print("  - Allocate and tag a page, then read it back without a pin\n");
+    try {
+      pid = Minibase.BufferManager.newPage(pg, 1);
+      Convert.setIntValue(pid.pid + 99999, 0, pg.getData());
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+
+      long stamp = Minibase.BufferManager.tryOptimisticRead(pid, view);
+      int value = Convert.getIntValue(0, view.getData());
+      if (stamp == 0 || !Minibase.BufferManager.validate(stamp) || value != pid.pid + 99999) {
+        status10 = FAIL;
+        System.err.print("*** The optimistic read of a quiet page failed\n");
+      }
+      if (Minibase.BufferManager.getNumPinned() != 0) {
+        status10 = FAIL;
+        System.err.print("*** The optimistic read pinned the page\n");
+      }
+
+      System.out.print("  - A clean pin leaves the stamp valid, a dirty one does not\n");
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+      if (!Minibase.BufferManager.validate(stamp)) {
+        status10 = FAIL;
+        System.err.print("*** A clean pin invalidated the stamp\n");
+      }
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      Convert.setIntValue(pid.pid + 77777, 0, pg.getData());
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      if (Minibase.BufferManager.validate(stamp)) {
+        status10 = FAIL;
+        System.err.print("*** A dirty unpin left the stamp valid\n");
+      }
+      stamp = Minibase.BufferManager.tryOptimisticRead(pid, view);
+      value = Convert.getIntValue(0, view.getData());
+      if (!Minibase.BufferManager.validate(stamp) || value != pid.pid + 77777) {
+        status10 = FAIL;
+        System.err.print("*** The retried read did not see the change\n");
+      }
+
+      System.out.print("  - Freeing the page invalidates the stamp\n");
+      Minibase.BufferManager.freePage(pid);
+      if (Minibase.BufferManager.validate(stamp)) {
+        status10 = FAIL;
+        System.err.print("*** Freeing the page left the stamp valid\n");
+      }
+      if (Minibase.BufferManager.tryOptimisticRead(pid, view) != 0) {
+        status10 = FAIL;
+        System.err.print("*** Read a page that is not in the pool\n");
+      }
+    } catch (Exception e) {
+      status10 = FAIL;
+      System.err.print("*** Unexpected exception\n");
+      e.printStackTrace();
+    }
+
+    if (status10 == PASS)
+      System.out.print("  Test 10 completed successfully.\n");
+
+    return status10;
+
+  } // protected boolean test10 ()
+
+  /**
+   * 
+   */
+  protected boolean test11() {
+
+    System.out.print("\n  Test 11 latches pages in shared and exclusive mode\n");
+
+    final int numThreads = 8;
+    final int opsPerThread = 5000;
+    Page pg = new Page();
+    final PageId pid;
+    boolean status11 = PASS;
+
+    try {
+      pid = Minibase.BufferManager.newPage(pg, 1);
+      Convert.setIntValue(0, 0, pg.getData());
+      Convert.setIntValue(0, 4, pg.getData());
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    } catch (Exception e) {
+      System.err.print("*** Could not set up the page\n");
+      e.printStackTrace();
+      return false;
+    }
+
+    System.out.print("  - Upgrade and downgrade a latch\n");
+    try {
+      Page other = new Page();
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO, LATCH_SHARED);
+      Minibase.BufferManager.pinPage(pid, other, PIN_DISKIO, LATCH_SHARED);
+      if (Minibase.BufferManager.tryUpgradeLatch(pid)) {
+        status11 = FAIL;
+        System.err.print("*** Upgraded a latch another reader holds\n");
+      }
+      Minibase.BufferManager.unlatchPage(pid);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+      if (!Minibase.BufferManager.tryUpgradeLatch(pid)) {
+        status11 = FAIL;
+        System.err.print("*** Could not upgrade the only shared latch\n");
+      }
+      long stamp = Minibase.BufferManager.tryOptimisticRead(pid, other);
+      if (stamp != 0) {
+        status11 = FAIL;
+        System.err.print("*** Read a page latched exclusively\n");
+      }
+      Minibase.BufferManager.downgradeLatch(pid);
+      try {
+        Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+        status11 = FAIL;
+        System.err.print("*** Dropped the last pin of a latched page\n");
+      } catch (IllegalStateException e) {
+        System.out.print("   --> Failed as expected \n");
+      }
+      Minibase.BufferManager.unlatchPage(pid);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+    } catch (Exception e) {
+      status11 = FAIL;
+      System.err.print("*** Unexpected exception\n");
+      e.printStackTrace();
+    }
+
+    // a rejected unpin must leave the page clean and its stamp valid
+    System.out.print("  - Try to unpin a latched page and an unpinned page dirty\n");
+    try {
+      Minibase.BufferManager.flushPage(pid);
+      int dirty = Minibase.BufferManager.getNumDirty();
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO, LATCH_SHARED);
+      long stamp = Minibase.BufferManager.tryOptimisticRead(pid, new Page());
+      try {
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+        status11 = FAIL;
+        System.err.print("*** Dropped the last pin of a latched page\n");
+      } catch (IllegalStateException e) {
+        System.out.print("   --> Failed as expected \n");
+      }
+      Minibase.BufferManager.unlatchPage(pid);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+      try {
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+        status11 = FAIL;
+        System.err.print("*** Unpinned a page with no pins\n");
+      } catch (IllegalArgumentException e) {
+        System.out.print("   --> Failed as expected \n");
+      }
+      if (Minibase.BufferManager.getNumDirty() != dirty
+          || !Minibase.BufferManager.validate(stamp)) {
+        status11 = FAIL;
+        System.err.print("*** A rejected unpin marked the page dirty\n");
+      }
+    } catch (Exception e) {
+      status11 = FAIL;
+      System.err.print("*** Unexpected exception\n");
+      e.printStackTrace();
+    }
+
+    // writers bump two counters on the page under an exclusive latch;
+    // readers under a shared latch must never see them differ
+    System.out.print("  - Read and write one page from " + numThreads + " threads\n");
+    final AtomicInteger errors = new AtomicInteger();
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; ++t) {
+      final boolean writer = (t % 2 == 0);
+      threads[t] = new Thread() {
+        public void run() {
+          Page page = new Page();
+          for (int op = 0; op < opsPerThread; ++op) {
+            try {
+              Minibase.BufferManager.pinPage(pid, page, PIN_DISKIO,
+                  writer ? LATCH_EXCLUSIVE : LATCH_SHARED);
+              int first = Convert.getIntValue(0, page.getData());
+              if (writer) {
+                Convert.setIntValue(first + 1, 0, page.getData());
+                Thread.yield();
+                Convert.setIntValue(first + 1, 4, page.getData());
+              } else if (Convert.getIntValue(4, page.getData()) != first) {
+                errors.incrementAndGet();
+              }
+              Minibase.BufferManager.unlatchPage(pid);
+              Minibase.BufferManager.unpinPage(pid, writer);
+            } catch (Exception e) {
+              errors.incrementAndGet();
+              e.printStackTrace();
+              return;
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (errors.get() != 0) {
+      status11 = FAIL;
+      System.err.print("*** Readers saw " + errors.get() + " torn or failed updates\n");
+    }
+
+    try {
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      int expected = (numThreads / 2) * opsPerThread;
+      if (Convert.getIntValue(0, pg.getData()) != expected
+          || Convert.getIntValue(4, pg.getData()) != expected) {
+        status11 = FAIL;
+        System.err.print("*** Writers lost updates\n");
+      }
+      Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+      Minibase.BufferManager.freePage(pid);
+    } catch (Exception e) {
+      status11 = FAIL;
+      System.err.print("*** Could not check and free the page\n");
+      e.printStackTrace();
+    }
+
+    if (status11 == PASS)
+      System.out.print("  Test 11 completed successfully.\n");
+
+    return status11;
+
+  } // protected boolean test11 ()
+
+  /**
+   * 
+   */
+  protected boolean test12() {
+
+    System.out.print("\n  Test 12 pins and unpins pages by frame handle\n");
+
+    Page pg = new Page();
+    PageId pid = new PageId();
+    boolean status12 = PASS;
+
+    System.out.print("  - Pin a page twice by handle, dirty it, and unpin by handle\n");
+    try {
+      pid = Minibase.BufferManager.newPage(pg, 1);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+
+      int handle = Minibase.BufferManager.pinFrame(pid, pg, PIN_DISKIO);
+      Convert.setIntValue(pid.pid + 99999, 0, pg.getData());
+      if (Minibase.BufferManager.pinFrame(pid, pg, PIN_DISKIO) != handle) {
+        status12 = FAIL;
+        System.err.print("*** A second pin of the page gave another handle\n");
+      }
+      int dirty = Minibase.BufferManager.getNumDirty();
+      Minibase.BufferManager.unpinFrame(handle, UNPIN_DIRTY);
+      Minibase.BufferManager.unpinFrame(handle, UNPIN_CLEAN);
+      if (Minibase.BufferManager.getNumPinned() != 0
+          || Minibase.BufferManager.getNumDirty() != dirty + 1) {
+        status12 = FAIL;
+        System.err.print("*** Unpinning by handle left the counters off\n");
+      }
+
+      System.out.print("  - Unpin by a handle that holds no pin\n");
+      try {
+        Minibase.BufferManager.unpinFrame(handle, UNPIN_CLEAN);
+        status12 = FAIL;
+        System.err.print("*** Unpinned a frame that was not pinned\n");
+      } catch (IllegalArgumentException e) {
+        System.out.print("   --> Failed as expected \n");
+      }
+      try {
+        Minibase.BufferManager.unpinFrame(Minibase.BufferManager.getNumFrames(), UNPIN_CLEAN);
+        status12 = FAIL;
+        System.err.print("*** Unpinned a frame past the end of the pool\n");
+      } catch (IllegalArgumentException e) {
+        System.out.print("   --> Failed as expected \n");
+      }
+
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      if (Convert.getIntValue(0, pg.getData()) != pid.pid + 99999) {
+        status12 = FAIL;
+        System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+      }
+      Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+      Minibase.BufferManager.freePage(pid);
+    } catch (Exception e) {
+      status12 = FAIL;
+      System.err.print("*** Unexpected exception\n");
+      e.printStackTrace();
+    }
+
+    if (status12 == PASS)
+      System.out.print("  Test 12 completed successfully.\n");
+
+    return status12;
+
+  } // protected boolean test12 ()
+
+  /**
+   * 
+   */
+  protected boolean test13() {
+
+    System.out.print("\n  Test 13 routes pages to named buffer pools\n");
+
+    BufMgr bufmgr = swapPool(new BufMgr(BUF_SIZE));
+    Page pg = new Page();
+    int numPages = BUF_SIZE * 2;
+    PageId firstPid = null;
+    boolean status13 = PASS;
+
+    try {
+      System.out.print("  - Route the database's metadata to a pool of its own\n");
+      BufMgr meta = bufmgr.addPool("meta", 8, "LRU");
+      Minibase.DiskManager.routeMetadata("meta");
+      Minibase.DiskManager.get_file_entry("no such file");
+      if (!"meta".equals(bufmgr.getPoolName(new PageId(0)))
+          || meta.getNumResident() == 0) {
+        status13 = FAIL;
+        System.err.print("*** The first page is not in the metadata pool\n");
+      }
+
+      System.out.print("  - Allocate and write " + numPages + " data pages\n");
+      firstPid = bufmgr.newPage(pg, numPages);
+      bufmgr.unpinPage(firstPid, UNPIN_CLEAN);
+      for (int i = 0; i < numPages; ++i) {
+        PageId pid = new PageId(firstPid.pid + i);
+        bufmgr.pinPage(pid, pg, PIN_NOOP);
+        Convert.setIntValue(pid.pid + 99999, 0, pg.getData());
+        bufmgr.unpinPage(pid, UNPIN_DIRTY);
+      }
+      Minibase.DiskManager.get_file_entry("no such file");
+      if (meta.getNumEvictions() != 0 || bufmgr.getNumEvictions() == 0) {
+        status13 = FAIL;
+        System.err.print("*** Data traffic evicted " + meta.getNumEvictions()
+            + " metadata pages\n");
+      }
+
+      System.out.print("  - Route a run of data pages to another pool\n");
+      BufMgr index = bufmgr.addPool("index", 4, "Clock");
+      PageId hot = new PageId(firstPid.pid + 1);
+      bufmgr.routePages("index", hot, 2);
+      int handle = bufmgr.pinFrame(hot, pg, PIN_DISKIO);
+      if (Convert.getIntValue(0, pg.getData()) != hot.pid + 99999
+          || index.getNumPinned() != 1) {
+        status13 = FAIL;
+        System.err.print("*** The routed page was not read into its pool\n");
+      }
+      Convert.setIntValue(hot.pid + 77777, 0, pg.getData());
+      bufmgr.unpinFrame(handle, UNPIN_DIRTY);
+      long stamp = bufmgr.tryOptimisticRead(hot, pg);
+      if (stamp == 0 || !bufmgr.validate(stamp)
+          || Convert.getIntValue(0, pg.getData()) != hot.pid + 77777) {
+        status13 = FAIL;
+        System.err.print("*** Optimistic read of the routed page failed\n");
+      }
+      if (bufmgr.flushPages(hot, 1) != 1 || index.getNumDirty() != 0) {
+        status13 = FAIL;
+        System.err.print("*** Flushing did not reach the routed page\n");
+      }
+
+      System.out.print("  - Pin a batch that spans two pools\n");
+      PageId [] batch = { firstPid, hot, new PageId(hot.pid + 1) };
+      Page [] pages = { new Page(), new Page(), new Page() };
+      bufmgr.pinPages(batch, pages);
+      if (Convert.getIntValue(0, pages[0].getData()) != firstPid.pid + 99999
+          || Convert.getIntValue(0, pages[1].getData()) != hot.pid + 77777
+          || index.getNumPinned() != 2 || bufmgr.getNumPinned() != 1) {
+        status13 = FAIL;
+        System.err.print("*** The batch pinned the wrong pages\n");
+      }
+
+      System.out.print("  - Route a pinned page, and add a pool twice\n");
+      try {
+        bufmgr.routePages(BufMgr.DEFAULT_POOL, hot, 1);
+        status13 = FAIL;
+        System.err.print("*** Routed a page that was pinned\n");
+      } catch (IllegalStateException e) {
+        System.out.print("   --> Failed as expected \n");
+      }
+      for (PageId pid : batch)
+        bufmgr.unpinPage(pid, UNPIN_CLEAN);
+      try {
+        bufmgr.addPool("index", 4, "Clock");
+        status13 = FAIL;
+        System.err.print("*** Added a second pool named index\n");
+      } catch (IllegalArgumentException e) {
+        System.out.print("   --> Failed as expected \n");
+      }
+
+      System.out.print("  - Route the run back to the default pool\n");
+      bufmgr.routePages(BufMgr.DEFAULT_POOL, hot, 2);
+      bufmgr.pinPage(hot, pg, PIN_DISKIO);
+      if (Convert.getIntValue(0, pg.getData()) != hot.pid + 77777
+          || index.getNumResident() != 0) {
+        status13 = FAIL;
+        System.err.print("*** Read wrong data back from page " + hot.pid + "\n");
+      }
+      bufmgr.unpinPage(hot, UNPIN_CLEAN);
+
+      for (int i = 0; i < numPages; ++i)
+        bufmgr.freePage(new PageId(firstPid.pid + i));
+    } catch (Exception e) {
+      status13 = FAIL;
+      System.err.print("*** Unexpected exception\n");
+      e.printStackTrace();
+    }
+
+    swapPool(new BufMgr(BUF_SIZE));
+
+    if (status13 == PASS)
+      System.out.print("  Test 13 completed successfully.\n");
+
+    return status13;
+
+  } // protected boolean test13 ()
+
+  /**
+   * 
+   */
+  protected boolean test14() {
+
+    System.out.print("\n  Test 14 resizes the buffer pool while pages are pinned\n");
+
+    boolean status14 = PASS;
+    String[] policies = { "LRU", "LRUK", "GClock", "ARC", "Clock" };
+    int numPages = BUF_SIZE * 2;
+    int small = BUF_SIZE / 4;
+    Page pg = new Page();
+
+    for (int i = 0; status14 == PASS && i < policies.length; ++i) {
+
+      System.out.print("  - Shrink and grow a " + policies[i] + " pool\n");
+      BufMgr bufmgr = swapPool(new BufMgr(BUF_SIZE, policies[i]));
+
+      try {
+        PageId firstPid = bufmgr.newPage(pg, numPages);
+        bufmgr.unpinPage(firstPid, UNPIN_CLEAN);
+        for (int j = 0; j < numPages; ++j) {
+          PageId pid = new PageId(firstPid.pid + j);
+          bufmgr.pinPage(pid, pg, PIN_NOOP);
+          Convert.setIntValue(pid.pid + 99999, 0, pg.getData());
+          bufmgr.unpinPage(pid, UNPIN_DIRTY);
+        }
+
+        // keep a pin on a page in a frame the shrink will retire
+        PageId held = null;
+        for (int j = numPages - 1; held == null; --j) {
+          PageId pid = new PageId(firstPid.pid + j);
+          if (bufmgr.pinFrame(pid, pg, PIN_DISKIO) >= small)
+            held = pid;
+          else
+            bufmgr.unpinPage(pid, UNPIN_CLEAN);
+        }
+        Page heldPage = new Page();
+        bufmgr.pinPage(held, heldPage, PIN_DISKIO);
+        bufmgr.unpinPage(held, UNPIN_CLEAN);
+
+        if (bufmgr.resize(small) != 1 || bufmgr.getNumFrames() != small
+            || bufmgr.getNumResident() != small + 1) {
+          status14 = FAIL;
+          System.err.print("*** Shrinking left " + bufmgr.getNumResident()
+              + " pages resident\n");
+        }
+        if (!checkTags(firstPid, numPages, 99999)) {
+          status14 = FAIL;
+          System.err.print("*** Read wrong data through the shrunk pool\n");
+        }
+
+        // the page stays put until its last pin goes, then leaves on a miss
+        Convert.setIntValue(held.pid + 77777, 0, heldPage.getData());
+        bufmgr.unpinPage(held, UNPIN_DIRTY);
+        checkTags(firstPid, small * 2, 99999);
+        bufmgr.pinPage(held, pg, PIN_DISKIO);
+        if (Convert.getIntValue(0, pg.getData()) != held.pid + 77777
+            || bufmgr.getNumResident() > small) {
+          status14 = FAIL;
+          System.err.print("*** The held page was not retired after its unpin\n");
+        }
+        Convert.setIntValue(held.pid + 99999, 0, pg.getData());
+        bufmgr.unpinPage(held, UNPIN_DIRTY);
+
+        // room for every page, and the disk manager's own
+        if (bufmgr.resize(numPages + small) != 0
+            || bufmgr.getNumFrames() != numPages + small) {
+          status14 = FAIL;
+          System.err.print("*** Growing the pool failed\n");
+        }
+        checkTags(firstPid, numPages, 99999);
+        long evictions = bufmgr.getNumEvictions();
+        if (!checkTags(firstPid, numPages, 99999)
+            || bufmgr.getNumEvictions() != evictions
+            || bufmgr.getNumResident() < numPages) {
+          status14 = FAIL;
+          System.err.print("*** The grown pool does not hold every page\n");
+        }
+
+        try {
+          bufmgr.resize(0);
+          status14 = FAIL;
+          System.err.print("*** Resized the pool to no frames\n");
+        } catch (IllegalArgumentException e) {
+          System.out.print("   --> Failed as expected \n");
+        }
+
+        for (int j = 0; j < numPages; ++j)
+          bufmgr.freePage(new PageId(firstPid.pid + j));
+      } catch (Exception e) {
+        status14 = FAIL;
+        System.err.print("*** Unexpected exception\n");
+        e.printStackTrace();
+      }
+    }
+
+    swapPool(new BufMgr(BUF_SIZE));
+
+    if (status14 == PASS)
+      System.out.print("  Test 14 completed successfully.\n");
+
+    return status14;
+
+  } // protected boolean test14 ()
+
+  /**
+   * 
+   */
+  protected boolean test15() {
+
+    System.out.print("\n  Test 15 splits the buffer pool into shards\n");
+
+    boolean status15 = PASS;
+    Page pg = new Page();
+    int numShards = 4;
+
+    System.out.print("  - Switch to a pool of " + numShards + " shards\n");
+    BufMgr bufmgr = swapPool(new BufMgr(BUF_SIZE, "Clock", numShards));
+    if (bufmgr.getNumFrames() != BUF_SIZE) {
+      status15 = FAIL;
+      System.err.print("*** The shards hold " + bufmgr.getNumFrames() + " frames\n");
+    }
+
+    status15 &= test1();
+    status15 &= test4();
+
+    try {
+      System.out.print("  - Pin a run of pages and see it spread over the shards\n");
+      int numPages = BUF_SIZE / 2;
+      PageId firstPid = bufmgr.newPage(pg, numPages);
+      bufmgr.unpinPage(firstPid, UNPIN_CLEAN);
+      int [] handles = new int[numPages];
+      boolean [] used = new boolean[numShards];
+      for (int i = 0; i < numPages; ++i) {
+        handles[i] = bufmgr.pinFrame(new PageId(firstPid.pid + i), pg, PIN_DISKIO);
+        used[handles[i] >>> 24] = true;
+      }
+      int spread = 0;
+      for (boolean u : used)
+        spread += u ? 1 : 0;
+      if (spread < 2 || bufmgr.getNumPinned() != numPages) {
+        status15 = FAIL;
+        System.err.print("*** The run went to " + spread + " shards\n");
+      }
+      for (int i = 0; i < numPages; ++i)
+        bufmgr.unpinFrame(handles[i], UNPIN_CLEAN);
+
+      // twice, so that a cleaner that died in the first round shows
+      System.out.print("  - Dirty the run twice and let the page cleaner write it\n");
+      long cleaned = bufmgr.getNumCleanerWrites();
+      bufmgr.startPageCleaner(0, 100000);
+      for (int round = 0; round < 2; ++round) {
+        for (int i = 0; i < numPages; ++i) {
+          PageId pid = new PageId(firstPid.pid + i);
+          bufmgr.pinPage(pid, pg, PIN_DISKIO);
+          bufmgr.unpinPage(pid, UNPIN_DIRTY);
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bufmgr.getNumDirty() != 0 && System.currentTimeMillis() < deadline)
+          Thread.sleep(1);
+      }
+      bufmgr.stopPageCleaner();
+      if (bufmgr.getNumDirty() != 0 || bufmgr.getNumCleanerWrites() - cleaned < numPages) {
+        status15 = FAIL;
+        System.err.print("*** The cleaner left " + bufmgr.getNumDirty() + " pages dirty\n");
+      }
+
+      System.out.print("  - Grow every shard at once\n");
+      bufmgr.resize(BUF_SIZE * 2);
+      if (bufmgr.getNumFrames() != BUF_SIZE * 2 || bufmgr.getNumPinned() != 0) {
+        status15 = FAIL;
+        System.err.print("*** The shards hold " + bufmgr.getNumFrames() + " frames\n");
+      }
+      // in a pool of its own, so every page of the run starts out on disk
+      System.out.print("  - Scan the run with read-ahead and read each page once\n");
+      BufMgr scan = new BufMgr(BUF_SIZE * 2, "Clock", numShards);
+      scan.startReadAhead(8);
+      int reads = Minibase.DiskManager.getReadCount();
+      for (int i = 0; i < numPages; ++i) {
+        PageId pid = new PageId(firstPid.pid + i);
+        scan.pinPage(pid, pg, PIN_DISKIO);
+        scan.unpinPage(pid, UNPIN_CLEAN);
+      }
+      scan.stopReadAhead();
+      reads = Minibase.DiskManager.getReadCount() - reads;
+      if (reads > numPages + 8 || scan.getNumResident() != reads) {
+        status15 = FAIL;
+        System.err.print("*** Read " + reads + " pages into " + scan.getNumResident()
+            + " frames\n");
+      }
+
+      for (int i = 0; i < numPages; ++i)
+        bufmgr.freePage(new PageId(firstPid.pid + i));
+
+      System.out.print("  - Ask for a number of shards that is not a power of two\n");
+      try {
+        new BufMgr(BUF_SIZE, "Clock", 3);
+        status15 = FAIL;
+        System.err.print("*** Made a pool of 3 shards\n");
+      } catch (IllegalArgumentException e) {
+        System.out.print("   --> Failed as expected \n");
+      }
+    } catch (Exception e) {
+      status15 = FAIL;
+      System.err.print("*** Unexpected exception\n");
+      e.printStackTrace();
+    }
+
+    swapPool(new BufMgr(BUF_SIZE));
+
+    if (status15 == PASS)
+      System.out.print("  Test 15 completed successfully.\n");
+
+    return status15;
+
+  } // protected boolean test15 ()
+
+  /**
+   * 
+   */
+  protected boolean test16() {
+
+    System.out.print("\n  Test 16 gives the buffer manager access advice\n");
+
+    boolean status16 = PASS;
+    String[] policies = { "LRU", "LRUK", "GClock", "ARC", "Clock" };
+    int numHot = BUF_SIZE - 10;
+    int numCold = 20;
+    Page pg = new Page();
+
+    for (int i = 0; status16 == PASS && i < policies.length; ++i) {
+
+      System.out.print("  - Advise a " + policies[i] + " pool\n");
+      BufMgr bufmgr = swapPool(new BufMgr(BUF_SIZE, policies[i]));
+
+      try {
+        PageId firstPid = bufmgr.newPage(pg, numHot);
+        bufmgr.unpinPage(firstPid, UNPIN_CLEAN);
+        for (int j = 0; j < numHot; ++j) {
+          PageId pid = new PageId(firstPid.pid + j);
+          bufmgr.pinPage(pid, pg, PIN_NOOP);
+          Convert.setIntValue(pid.pid + 99999, 0, pg.getData());
+          bufmgr.unpinPage(pid, UNPIN_DIRTY);
+        }
+        for (int pass = 0; pass < 2; ++pass)
+          checkTags(firstPid, numHot, 99999);
+
+        // cold pages go straight to disk, so none of them is resident
+        PageId coldPid = Minibase.DiskManager.allocate_page(numCold);
+        Page cold = new Page();
+        for (int j = 0; j < numCold; ++j) {
+          PageId pid = new PageId(coldPid.pid + j);
+          Convert.setIntValue(pid.pid + 99999, 0, cold.getData());
+          Minibase.DiskManager.write_page(pid, cold);
+        }
+
+        // a page advised as not needed goes first, pinned or not
+        PageId unpinned = new PageId(firstPid.pid + numHot / 2);
+        bufmgr.advise(unpinned, 1, ADVICE_DONT_NEED);
+        PageId pinned = new PageId(firstPid.pid + numHot / 3);
+        bufmgr.pinPage(pinned, pg, PIN_DISKIO);
+        bufmgr.unpinPage(pinned, UNPIN_CLEAN, ADVICE_DONT_NEED);
+        long evictions = bufmgr.getNumEvictions();
+        for (int j = 0; j < numCold / 2 && bufmgr.getNumEvictions() < evictions + 2; ++j)
+          checkTags(new PageId(coldPid.pid + j), 1, 99999);
+        if (bufmgr.tryOptimisticRead(unpinned, pg) != 0
+            || bufmgr.tryOptimisticRead(pinned, pg) != 0) {
+          status16 = FAIL;
+          System.err.print("*** A page advised as not needed was not evicted first\n");
+        }
+
+        // a run advised as needed comes in without a pin
+        System.out.print("  - Advise that a run will be needed\n");
+        PageId needed = new PageId(coldPid.pid + numCold / 2);
+        long prefetches = bufmgr.getNumPrefetches();
+        bufmgr.advise(needed, numCold / 2, ADVICE_WILL_NEED);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bufmgr.getNumPrefetches() < prefetches + numCold / 2
+            && System.currentTimeMillis() < deadline)
+          Thread.yield();
+        int reads = Minibase.DiskManager.getReadCount();
+        if (!checkTags(needed, numCold / 2, 99999)
+            || Minibase.DiskManager.getReadCount() != reads) {
+          status16 = FAIL;
+          System.err.print("*** Pinning the advised run read "
+              + (Minibase.DiskManager.getReadCount() - reads) + " pages\n");
+        }
+
+        try {
+          bufmgr.advise(firstPid, 1, PIN_DISKIO);
+          status16 = FAIL;
+          System.err.print("*** Took a pin mode as advice\n");
+        } catch (IllegalArgumentException e) {
+          System.out.print("   --> Failed as expected \n");
+        }
+
+        for (int j = 0; j < numHot; ++j)
+          bufmgr.freePage(new PageId(firstPid.pid + j));
+        for (int j = 0; j < numCold; ++j)
+          bufmgr.freePage(new PageId(coldPid.pid + j));
+      } catch (Exception e) {
+        status16 = FAIL;
+        System.err.print("*** Unexpected exception\n");
+        e.printStackTrace();
+      }
+    }
+
+    swapPool(new BufMgr(BUF_SIZE));
+
+    if (status16 == PASS)
+      System.out.print("  Test 16 completed successfully.\n");
+
+    return status16;
+
+  } // protected boolean test16 ()
+
+  /**
+   * 
+   */
+  protected boolean test17() {
+
+    System.out.print("\n  Test 17 scans through a private ring of frames\n");
+
+    BufMgr bufmgr = swapPool(new BufMgr(BUF_SIZE));
+    boolean status17 = PASS;
+    int numHot = BUF_SIZE / 2;
+    int numScan = BUF_SIZE * 3;
+    Page pg = new Page();
+
+    try {
+      PageId hotPid = bufmgr.newPage(pg, numHot);
+      bufmgr.unpinPage(hotPid, UNPIN_CLEAN);
+      for (int j = 0; j < numHot; ++j) {
+        PageId pid = new PageId(hotPid.pid + j);
+        bufmgr.pinPage(pid, pg, PIN_NOOP);
+        Convert.setIntValue(pid.pid + 99999, 0, pg.getData());
+        bufmgr.unpinPage(pid, UNPIN_DIRTY);
+      }
+      PageId scanPid = Minibase.DiskManager.allocate_page(numScan);
+      Page scan = new Page();
+      for (int j = 0; j < numScan; ++j) {
+        PageId pid = new PageId(scanPid.pid + j);
+        Convert.setIntValue(pid.pid + 99999, 0, scan.getData());
+        Minibase.DiskManager.write_page(pid, scan);
+      }
+
+      System.out.print("  - Scan " + numScan + " pages through a ring of 8 frames\n");
+      BufferRing ring = bufmgr.newRing(8);
+      for (int j = 0; j < numScan; ++j) {
+        PageId pid = new PageId(scanPid.pid + j);
+        bufmgr.pinPage(pid, pg, PIN_DISKIO, ring);
+        if (Convert.getIntValue(0, pg.getData()) != pid.pid + 99999) {
+          status17 = FAIL;
+          System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+        }
+        bufmgr.unpinPage(pid, UNPIN_CLEAN);
+      }
+      ring.close();
+      int resident = 0;
+      for (int j = 0; j < numHot; ++j) {
+        if (bufmgr.tryOptimisticRead(new PageId(hotPid.pid + j), pg) != 0)
+          ++resident;
+      }
+      if (resident != numHot || bufmgr.getNumRingReuses() < numScan - BUF_SIZE) {
+        status17 = FAIL;
+        System.err.print("*** The scan left " + resident + " of " + numHot
+            + " hot pages resident\n");
+      }
+
+      System.out.print("  - Hold more pins than the ring has frames\n");
+      ring = bufmgr.newRing(4);
+      for (int j = 0; j < 12; ++j)
+        bufmgr.pinPage(new PageId(scanPid.pid + j), pg, PIN_DISKIO, ring);
+      for (int j = 0; j < 12; ++j)
+        bufmgr.unpinPage(new PageId(scanPid.pid + j), UNPIN_CLEAN);
+      ring.close();
+      if (bufmgr.getNumPinned() != 0) {
+        status17 = FAIL;
+        System.err.print("*** Pins were left behind\n");
+      }
+
+      try {
+        bufmgr.newRing(0);
+        status17 = FAIL;
+        System.err.print("*** Opened a ring of no frames\n");
+      } catch (IllegalArgumentException e) {
+        System.out.print("   --> Failed as expected \n");
+      }
+
+      for (int j = 0; j < numHot; ++j)
+        bufmgr.freePage(new PageId(hotPid.pid + j));
+      for (int j = 0; j < numScan; ++j)
+        bufmgr.freePage(new PageId(scanPid.pid + j));
+    } catch (Exception e) {
+      status17 = FAIL;
+      System.err.print("*** Unexpected exception\n");
+      e.printStackTrace();
+    }
+
+    swapPool(new BufMgr(BUF_SIZE));
+
+    if (status17 == PASS)
+      System.out.print("  Test 17 completed successfully.\n");
+
+    return status17;
+
+  } // protected boolean test17 ()
+
+  /**
+   * 
+   */
+  protected boolean test18() {
+
+    System.out.print("\n  Test 18 warms the buffer pool from the pages resident at close\n");
+
+    swapPool(new BufMgr(BUF_SIZE));
+    boolean status18 = PASS;
+    int numHot = BUF_SIZE / 2;
+    File warm = new File(DB_PATH + DiskMgr.RESIDENT_SUFFIX);
+    Page pg = new Page();
+
+    try {
+      PageId hotPid = Minibase.BufferManager.newPage(pg, numHot);
+      Minibase.BufferManager.unpinPage(hotPid, UNPIN_CLEAN);
+      for (int j = 0; j < numHot; ++j) {
+        PageId pid = new PageId(hotPid.pid + j);
+        Minibase.BufferManager.pinPage(pid, pg, PIN_NOOP);
+        Convert.setIntValue(pid.pid + 99999, 0, pg.getData());
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      }
+
+      System.out.print("  - Close the database and open it again\n");
+      Minibase.DiskManager.closeDB();
+      if (!warm.exists()) {
+        status18 = FAIL;
+        System.err.print("*** Closing did not save the resident pages\n");
+      }
+      load_minibase();
+      long deadline = System.currentTimeMillis() + 10000;
+      while (Minibase.BufferManager.getNumResident() < numHot
+          && System.currentTimeMillis() < deadline)
+        Thread.sleep(10);
+      int reads = Minibase.DiskManager.getReadCount();
+      if (!checkTags(hotPid, numHot, 99999)) {
+        status18 = FAIL;
+        System.err.print("*** Read wrong data back after the warm-up\n");
+      }
+      if (Minibase.DiskManager.getReadCount() != reads) {
+        status18 = FAIL;
+        System.err.print("*** " + (Minibase.DiskManager.getReadCount() - reads)
+            + " hot pages were read on demand after the warm-up\n");
+      }
+
+      System.out.print("  - Save the resident pages periodically\n");
+      warm.delete();
+      Minibase.DiskManager.startWarmupSaver(20);
+      deadline = System.currentTimeMillis() + 5000;
+      while (!warm.exists() && System.currentTimeMillis() < deadline)
+        Thread.sleep(10);
+      Minibase.DiskManager.stopWarmupSaver();
+      if (!warm.exists()) {
+        status18 = FAIL;
+        System.err.print("*** The timer did not save the resident pages\n");
+      }
+
+      try {
+        Minibase.DiskManager.startWarmupSaver(0);
+        status18 = FAIL;
+        System.err.print("*** Started saving with no period\n");
+      } catch (IllegalArgumentException e) {
+        System.out.print("   --> Failed as expected \n");
+      }
+
+      for (int j = 0; j < numHot; ++j)
+        Minibase.BufferManager.freePage(new PageId(hotPid.pid + j));
+    } catch (Exception e) {
+      status18 = FAIL;
+      System.err.print("*** Unexpected exception\n");
+      e.printStackTrace();
+    }
+
+    swapPool(new BufMgr(BUF_SIZE));
+
+    if (status18 == PASS)
+      System.out.print("  Test 18 completed successfully.\n");
+
+    return status18;
+
+  } // protected boolean test18 ()
+
+  /**
+   * 
+   */
+  protected boolean test19() {
+
+    System.out.print("\n  Test 19 counts buffer pool events and reports them through JMX\n");
+
+    BufMgr bufmgr = swapPool(new BufMgr(BUF_SIZE, "Clock"));
+    boolean status19 = PASS;
+    int numPages = BUF_SIZE * 2;
+    Page pg = new Page();
+
+    try {
+      System.out.print("  - Pin a run twice the size of the pool, twice over\n");
+      PageId firstPid = bufmgr.newPage(pg, numPages);
+      bufmgr.unpinPage(firstPid, UNPIN_CLEAN);
+      for (int j = 0; j < numPages; ++j) {
+        PageId pid = new PageId(firstPid.pid + j);
+        bufmgr.pinPage(pid, pg, PIN_NOOP);
+        bufmgr.unpinPage(pid, UNPIN_DIRTY);
+      }
+      for (int j = 0; j < numPages; ++j) {
+        PageId pid = new PageId(firstPid.pid + j);
+        bufmgr.pinPage(pid, pg, PIN_DISKIO);
+        bufmgr.pinPage(pid, pg, PIN_DISKIO);
+        bufmgr.unpinPage(pid, UNPIN_CLEAN);
+        bufmgr.unpinPage(pid, UNPIN_CLEAN);
+      }
+      BufMgrStats stats = bufmgr.getStats();
+      // the disk manager pins its space map as well
+      if (stats.getPins() < numPages * 3 + 1 || stats.getUnpins() != stats.getPins()
+          || stats.getHits() < numPages || stats.getMisses() < numPages * 2) {
+        status19 = FAIL;
+        System.err.print("*** Counted " + stats.getHits() + " hits, " + stats.getMisses()
+            + " misses and " + stats.getUnpins() + " unpins\n");
+      }
+      if (stats.getEvictions() < numPages * 2 - BUF_SIZE
+          || stats.getDirtyEvictions() < numPages - BUF_SIZE
+          || stats.getSweepDistance() < 1) {
+        status19 = FAIL;
+        System.err.print("*** Counted " + stats.getEvictions() + " evictions, "
+            + stats.getDirtyEvictions() + " dirty, sweeping "
+            + stats.getSweepDistance() + " frames per eviction\n");
+      }
+
+      System.out.print("  - Read the statistics through the platform MBean server\n");
+      stats.register();
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("bufmgr:type=BufMgrStats,pool=\"default\"");
+      long hits = (Long) server.getAttribute(name, "Hits");
+      int resident = (Integer) server.getAttribute(name, "ResidentFrames");
+      if (hits != bufmgr.getNumHits() || resident != bufmgr.getNumResident()) {
+        status19 = FAIL;
+        System.err.print("*** JMX reported " + hits + " hits and " + resident
+            + " resident frames\n");
+      }
+      stats.unregister();
+      if (server.isRegistered(name)) {
+        status19 = FAIL;
+        System.err.print("*** The statistics stayed registered\n");
+      }
+
+      // in a pool of its own, which the space map does not touch, pausing
+      // so that the prefetcher keeps ahead even on one CPU
+      System.out.print("  - Scan the run with read-ahead and count each pin once\n");
+      BufMgr scan = new BufMgr(BUF_SIZE, "Clock");
+      scan.startReadAhead(8);
+      int reads = Minibase.DiskManager.getReadCount();
+      for (int j = 0; j < numPages; ++j) {
+        PageId pid = new PageId(firstPid.pid + j);
+        scan.pinPage(pid, pg, PIN_DISKIO);
+        scan.unpinPage(pid, UNPIN_CLEAN);
+        Thread.sleep(1);
+      }
+      scan.stopReadAhead();
+      reads = Minibase.DiskManager.getReadCount() - reads;
+      BufMgrStats scanStats = scan.getStats();
+      if (scanStats.getPins() != numPages || scanStats.getPrefetches() == 0
+          || scanStats.getMisses() + scanStats.getPrefetches() != reads
+          || scanStats.getPrefetchHits() == 0) {
+        status19 = FAIL;
+        System.err.print("*** Counted " + scanStats.getHits() + " hits, "
+            + scanStats.getMisses() + " misses and " + scanStats.getPrefetches()
+            + " prefetches for " + reads + " reads\n");
+      }
+
+      System.out.print("  - Count the frames each policy looks at per eviction\n");
+      String[] policies = { "LRU", "LRUK", "GClock", "ARC" };
+      for (String policy : policies) {
+        BufMgr other = new BufMgr(BUF_SIZE, policy);
+        for (int j = 0; j < numPages; ++j) {
+          PageId pid = new PageId(firstPid.pid + j);
+          other.pinPage(pid, pg, PIN_DISKIO);
+          other.unpinPage(pid, UNPIN_CLEAN);
+        }
+        double distance = other.getStats().getSweepDistance();
+        if (distance < 1) {
+          status19 = FAIL;
+          System.err.print("*** " + policy + " looked at " + distance
+              + " frames per eviction\n");
+        }
+      }
+
+      for (int j = 0; j < numPages; ++j)
+        bufmgr.freePage(new PageId(firstPid.pid + j));
+      if (stats.getFrees() != numPages) {
+        status19 = FAIL;
+        System.err.print("*** Counted " + stats.getFrees() + " frees\n");
+      }
+    } catch (Exception e) {
+      status19 = FAIL;
+      System.err.print("*** Unexpected exception\n");
+      e.printStackTrace();
+    }
+
+    swapPool(new BufMgr(BUF_SIZE));
+
+    if (status19 == PASS)
+      System.out.print("  Test 19 completed successfully.\n");
+
+    return status19;
+
+  } // protected boolean test19 ()
+
+  /**
+   * 
+   */
+  protected boolean test20() {
+
+    System.out.print("\n  Test 20 records pin and disk latencies in histograms\n");
+
+    BufMgr bufmgr = swapPool(new BufMgr(BUF_SIZE));
+    boolean status20 = PASS;
+    int numPages = BUF_SIZE * 2;
+    Page pg = new Page();
+
+    try {
+      System.out.print("  - Check the bucket bounds\n");
+      Random rand = new Random(20);
+      for (int j = 0; j < 10000; ++j) {
+        long nanos = (j < 64) ? (1L << j) - 1 : rand.nextLong() >>> (1 + rand.nextInt(63));
+        int bucket = LatencyHistogram.bucket(nanos);
+        long low = LatencyHistogram.lowestValue(bucket);
+        long high = LatencyHistogram.highestValue(bucket);
+        if (nanos < low || nanos > high || (high - low) > low / 8) {
+          status20 = FAIL;
+          System.err.print("*** Latency " + nanos + " went to bucket " + bucket
+              + " of " + low + " to " + high + "\n");
+          break;
+        }
+      }
+
+      System.out.print("  - Pin pages that miss, then hit\n");
+      PageId firstPid = Minibase.DiskManager.allocate_page(numPages);
+      for (int j = 0; j < numPages; ++j)
+        Minibase.DiskManager.write_page(new PageId(firstPid.pid + j), pg);
+      Minibase.DiskManager.getReadLatency().reset();
+      for (int j = 0; j < numPages; ++j) {
+        PageId pid = new PageId(firstPid.pid + j);
+        bufmgr.pinPage(pid, pg, PIN_DISKIO);
+        bufmgr.pinPage(pid, pg, PIN_DISKIO);
+        bufmgr.unpinPage(pid, UNPIN_CLEAN);
+        bufmgr.unpinPage(pid, UNPIN_CLEAN);
+      }
+      LatencyHistogram.Snapshot hits = bufmgr.getPinHitLatency().snapshot();
+      LatencyHistogram.Snapshot misses = bufmgr.getPinMissLatency().snapshot();
+      LatencyHistogram.Snapshot reads = Minibase.DiskManager.getReadLatency().snapshot();
+      // hits are sampled, so their count is an estimate
+      if (hits.getTotalCount() == 0 || misses.getTotalCount() < numPages
+          || reads.getTotalCount() != numPages) {
+        status20 = FAIL;
+        System.err.print("*** Recorded " + hits.getTotalCount() + " hits, "
+            + misses.getTotalCount() + " misses and " + reads.getTotalCount() + " reads\n");
+      }
+      if (misses.getValueAtPercentile(50) > misses.getValueAtPercentile(99)
+          || misses.getValueAtPercentile(99) > misses.getMaxValue()
+          || misses.getMean() <= 0) {
+        status20 = FAIL;
+        System.err.print("*** Inconsistent miss latencies: " + misses + "\n");
+      }
+
+      System.out.print("  - Read and write a run of pages in one call each\n");
+      Page[] run = new Page[8];
+      for (int j = 0; j < run.length; ++j)
+        run[j] = new Page();
+      Minibase.DiskManager.getReadLatency().reset();
+      Minibase.DiskManager.getWriteLatency().reset();
+      Minibase.DiskManager.read_pages(firstPid, run);
+      Minibase.DiskManager.write_pages(firstPid, run);
+      reads = Minibase.DiskManager.getReadLatency().snapshot();
+      LatencyHistogram.Snapshot writes = Minibase.DiskManager.getWriteLatency().snapshot();
+      if (reads.getTotalCount() != run.length || writes.getTotalCount() != run.length) {
+        status20 = FAIL;
+        System.err.print("*** Recorded " + reads.getTotalCount() + " reads and "
+            + writes.getTotalCount() + " writes for runs of " + run.length + "\n");
+      }
+
+      System.out.print("  - Record from threads that then end\n");
+      final LatencyHistogram hist = new LatencyHistogram();
+      Thread[] threads = new Thread[4];
+      for (int t = 0; t < threads.length; ++t) {
+        threads[t] = new Thread() {
+          public void run() {
+            for (int j = 0; j < 1000; ++j)
+              hist.record(j);
+          }
+        };
+        threads[t].start();
+      }
+      for (Thread thread : threads)
+        thread.join();
+      LatencyHistogram.Snapshot first = hist.snapshotAndReset();
+      hist.record(5);
+      LatencyHistogram.Snapshot second = hist.snapshot();
+      if (first.getTotalCount() != 4000 || first.getCount(LatencyHistogram.bucket(7)) != 4
+          || second.getTotalCount() != 1 || second.getCount(5) != 1) {
+        status20 = FAIL;
+        System.err.print("*** Merged " + first.getTotalCount() + " latencies, then "
+            + second.getTotalCount() + " after the reset\n");
+      }
+
+      Minibase.DiskManager.deallocate_page(firstPid, numPages);
+    } catch (Exception e) {
+      status20 = FAIL;
+      System.err.print("*** Unexpected exception\n");
+      e.printStackTrace();
+    }
+
+    swapPool(new BufMgr(BUF_SIZE));
+
+    if (status20 == PASS)
+      System.out.print("  Test 20 completed successfully.\n");
+
+    return status20;
+
+  } // protected boolean test20 ()
+
+  /**
+   * 
+   */
+  protected boolean test21() {
+
+    System.out.print("\n  Test 21 emits flight recorder events for the enabled types\n");
+
+    BufMgr bufmgr = swapPool(new BufMgr(BUF_SIZE));
+    boolean status21 = PASS;
+    int numPages = BUF_SIZE * 2;
+    Page pg = new Page();
+
+    try {
+      System.out.print("  - Record dirty misses with page writes left disabled\n");
+      Recording recording = new Recording();
+      recording.enable("minibase.PinMiss");
+      recording.enable("minibase.Eviction");
+      recording.enable("minibase.FlushAll");
+      recording.enable("minibase.PageRead");
+      recording.start();
+      PageId firstPid = bufmgr.newPage(pg, numPages);
+      bufmgr.unpinPage(firstPid, UNPIN_CLEAN);
+      for (int j = 0; j < numPages; ++j) {
+        PageId pid = new PageId(firstPid.pid + j);
+        bufmgr.pinPage(pid, pg, PIN_NOOP);
+        bufmgr.unpinPage(pid, UNPIN_DIRTY);
+      }
+      bufmgr.flushAllFrames();
+      recording.stop();
+      Path file = Files.createTempFile("bmtest", ".jfr");
+      recording.dump(file);
+      recording.close();
+
+      HashMap<String, Integer> counts = new HashMap<String, Integer>();
+      int dirtyEvictions = 0;
+      for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+        String type = event.getEventType().getName();
+        counts.merge(type, 1, Integer::sum);
+        if (type.equals("minibase.Eviction") && event.getBoolean("dirty"))
+          ++dirtyEvictions;
+      }
+      Files.delete(file);
+      if (counts.getOrDefault("minibase.PinMiss", 0) < numPages
+          || counts.getOrDefault("minibase.Eviction", 0) < numPages - BUF_SIZE
+          || dirtyEvictions < numPages - BUF_SIZE
+          || counts.getOrDefault("minibase.FlushAll", 0) != 1) {
+        status21 = FAIL;
+        System.err.print("*** Recorded " + counts + ", " + dirtyEvictions
+            + " dirty evictions\n");
+      }
+      if (counts.containsKey("minibase.PageWrite")
+          || counts.containsKey("minibase.PageAllocate")) {
+        status21 = FAIL;
+        System.err.print("*** Recorded events of disabled types: " + counts + "\n");
+      }
+
+      for (int j = 0; j < numPages; ++j)
+        bufmgr.freePage(new PageId(firstPid.pid + j));
+    } catch (Exception e) {
+      status21 = FAIL;
+      System.err.print("*** Unexpected exception\n");
+      e.printStackTrace();
+    }
+
+    swapPool(new BufMgr(BUF_SIZE));
+
+    if (status21 == PASS)
+      System.out.print("  Test 21 completed successfully.\n");
+
+    return status21;
+
+  } // protected boolean test21 ()
+
+  /**
+   * 
+   */
+  protected boolean test22() {
+
+    System.out.print("\n  Test 22 writes dirty pages back ahead of eviction\n");
+
+    BufMgr bufmgr = swapPool(new BufMgr(BUF_SIZE));
+    boolean status22 = PASS;
+    int numDirty = BUF_SIZE / 2;
+    int target = BUF_SIZE / 10;
+    Page pg = new Page();
+
+    try {
+      PageId firstPid = bufmgr.newPage(pg, BUF_SIZE * 2);
+      bufmgr.unpinPage(firstPid, UNPIN_CLEAN);
+      bufmgr.startPageCleaner(0.1, 100000);
+
+      System.out.print("  - Dirty half the pool and let the cleaner catch up\n");
+      for (int j = 0; j < numDirty; ++j) {
+        PageId pid = new PageId(firstPid.pid + j);
+        bufmgr.pinPage(pid, pg, PIN_NOOP);
+        Convert.setIntValue(pid.pid + 99999, 0, pg.getData());
+        bufmgr.unpinPage(pid, UNPIN_DIRTY);
+      }
+      long deadline = System.currentTimeMillis() + 10000;
+      while (bufmgr.getNumDirty() > target && System.currentTimeMillis() < deadline)
+        Thread.sleep(1);
+      if (bufmgr.getNumDirty() > target) {
+        status22 = FAIL;
+        System.err.print("*** The cleaner left " + bufmgr.getNumDirty() + " pages dirty\n");
+      }
+
+      // at or below target the cleaner parks until the next dirty unpin
+      System.out.print("  - Check that the idle cleaner sleeps\n");
+      Thread.sleep(50);
+      for (Thread thread : Thread.getAllStackTraces().keySet()) {
+        if (thread.getName().equals("PageCleaner")
+            && thread.getState() != Thread.State.WAITING) {
+          status22 = FAIL;
+          System.err.print("*** An idle cleaner is " + thread.getState() + "\n");
+        }
+      }
+
+      System.out.print("  - Evict every dirtied page and read it back\n");
+      long dirtyEvictions = bufmgr.getNumDirtyEvictions();
+      for (int j = numDirty; j < BUF_SIZE * 2; ++j) {
+        PageId pid = new PageId(firstPid.pid + j);
+        bufmgr.pinPage(pid, pg, PIN_NOOP);
+        bufmgr.unpinPage(pid, UNPIN_CLEAN);
+      }
+      if (bufmgr.getNumDirtyEvictions() - dirtyEvictions > target) {
+        status22 = FAIL;
+        System.err.print("*** Misses wrote " + (bufmgr.getNumDirtyEvictions() - dirtyEvictions)
+            + " dirty victims\n");
+      }
+      bufmgr.stopPageCleaner();
+      if (!checkTags(firstPid, numDirty, 99999)) {
+        status22 = FAIL;
+        System.err.print("*** Read wrong data back after eviction\n");
+      }
+
+      for (int j = 0; j < BUF_SIZE * 2; ++j)
+        bufmgr.freePage(new PageId(firstPid.pid + j));
+    } catch (Exception e) {
+      status22 = FAIL;
+      System.err.print("*** Unexpected exception\n");
+      e.printStackTrace();
+    }
+
+    swapPool(new BufMgr(BUF_SIZE));
+
+    if (status22 == PASS)
+      System.out.print("  Test 22 completed successfully.\n");
+
+    return status22;
+
+  } // protected boolean test22 ()
+
+  /**
+   * Replaces the buffer manager under test: flushes the current one, stops
+   * its background threads so they no longer touch the disk, and installs
+   * the given one.
+   *
+   * @return the new buffer manager
+   */
+  private BufMgr swapPool(BufMgr bufmgr) {
+
+    Minibase.BufferManager.stopBackgroundThreads();
+    Minibase.BufferManager.flushAllFrames();
+    Minibase.BufferManager = bufmgr;
+    return bufmgr;
+  }
+
+  /**
+   * Reads a run of pages back and checks each one's tag.
+   */
+  private boolean checkTags(PageId firstPid, int numPages, int tag) {
+
+    Page pg = new Page();
+    boolean ok = true;
+    for (int j = 0; j < numPages; ++j) {
+      PageId pid = new PageId(firstPid.pid + j);
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      ok &= Convert.getIntValue(0, pg.getData()) == pid.pid + tag;
+      Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+    }
+    return ok;
+  }
+
 } // class BMTest extends TestDriver
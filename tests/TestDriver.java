@@ -1,5 +1,6 @@
 package tests;
 
+import diskmgr.DiskMgr;
 import global.GlobalConst;
 import global.Minibase;
 
@@ -65,6 +66,7 @@ class TestDriver implements GlobalConst {
    */
   protected void delete_minibase() {
     new File(DB_PATH).delete();
+    new File(DB_PATH + DiskMgr.RESIDENT_SUFFIX).delete();
   }
 
   /**